@@ -0,0 +1,45 @@
+package com.oxande.commons.oxutils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encode and decode objects in a compact binary format. This is used when the objects have to
+ * leave the memory, for example when a {@link PowerStream} spills its elements to the disk.
+ *
+ * <pre>
+ *     Codec&lt;User&gt; codec = new Codec&lt;User&gt;() {
+ *         public void encode(User user, DataOutput out) throws IOException {
+ *             out.writeLong(user.getId());
+ *             out.writeUTF(user.getName());
+ *         }
+ *
+ *         public User decode(DataInput in) throws IOException {
+ *             return new User(in.readLong(), in.readUTF());
+ *         }
+ *     };
+ * </pre>
+ *
+ * @param <T> the type of the objects.
+ */
+public interface Codec<T> {
+
+    /**
+     * Write the object.
+     *
+     * @param value the object (never null).
+     * @param out the output.
+     * @throws IOException if the object can not be written.
+     */
+    void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * Read an object written by {@link #encode(Object, DataOutput)}.
+     *
+     * @param in the input.
+     * @return the object read.
+     * @throws IOException if the object can not be read.
+     */
+    T decode(DataInput in) throws IOException;
+}
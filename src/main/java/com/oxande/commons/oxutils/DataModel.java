@@ -1,45 +1,208 @@
 package com.oxande.commons.oxutils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import com.oxande.commons.oxutils.exception.BusinessException;
+import com.oxande.commons.oxutils.mapper.FieldSelector;
 import com.oxande.commons.oxutils.mapper.JacksonConfiguration;
+import com.oxande.commons.oxutils.mapper.JsonFragmentCache;
+import com.oxande.commons.oxutils.mapper.ProjectionFilter;
+import com.oxande.commons.oxutils.mapper.RawJson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * The data model used to respond.
+ * <p>
+ * The lists put with {@link #putLazy(String, Stream, String, int)} or {@link #putLazy(String, Iterable, String, int)}
+ * are lazy: the elements are read when the response is written, one by one, without being
+ * copied in a list. When elements remain after the page, an opaque cursor is added to the
+ * <code>"cursor"</code> object of the response (one cursor by key); the client sends it back
+ * to get the next page (see {@link #offsetOf(String)}). A lazy list needing a cursor can not be
+ * written if the model has its own <code>"cursor"</code> value.
+ * </p>
+ * <p>
+ * For an unbounded result (an export), {@link #ndjson(Stream)} writes the records in the
+ * <code>application/x-ndjson</code> format, one JSON record per line, in a single response.
+ * </p>
+ * <p>
+ * The values coming from independent backends can be computed in parallel with
+ * {@link #async(String, Supplier)}: the response waits for them until the deadline (see
+ * {@link #setDeadline(long, TimeUnit)}). The values failed or not available in time are
+ * reported in the <code>"errors"</code> object and the status is then
+ * {@link HttpStatus#PARTIAL_CONTENT}.
+ * </p>
+ * <p>
+ * The client can ask for some fields only (for example <code>fields=a,b.c,d[*].id</code>), see
+ * {@link #setFields(String)}: the fields not requested are not serialized at all, in the POJOs
+ * and the maps too.
+ * </p>
+ * <p>
+ * {@link #compressed(HttpHeaders)} negotiates the compression of the response and keeps the
+ * compressed payloads with their entity tag.
+ * </p>
  *
  * @author wrey
  */
 public class DataModel implements Map<String, Object> {
     private static final Logger LOG = LoggerFactory.getLogger(DataModel.class);
     public static final int MAX_LIST_SIZE = 1000;
+    public static final String CURSOR_KEY = "cursor";
+    public static final String ERRORS_KEY = "errors";
+
+    /**
+     * The default time to wait for the values computed asynchronously (in milliseconds since the
+     * creation of the model).
+     */
+    public static final long DEFAULT_DEADLINE = 10_000L;
+
+    /**
+     * The executor of {@link #async(String, Supplier)}: a bounded pool shared by all the models.
+     * When it is saturated, the supplier is rejected (never run by the thread of the request).
+     */
+    private static final ExecutorService ASYNC_EXECUTOR;
+
+    static {
+        AtomicInteger counter = new AtomicInteger();
+        int threads = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1000), r -> {
+            Thread t = new Thread(r, "DataModel-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        ASYNC_EXECUTOR = executor;
+    }
+
+    /**
+     * The maximum time between two flushes of a NDJSON response (in milliseconds). When the
+     * records are read from a {@link PowerStream}, the records written are also flushed if the
+     * next one is not ready before this delay.
+     */
+    public static final long NDJSON_FLUSH_INTERVAL = 200L;
+
+    /**
+     * The writer used for a projection (the {@link ProjectionFilter} is applied to all the classes).
+     */
+    private static final ObjectWriter PROJECTION_WRITER = ProjectionFilter.configure(JacksonConfiguration.objectMapper().copy())
+            .writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * A list read lazily when the model is written. It can be written only once. The null
+     * elements are not written but count in the offsets.
+     */
+    private static final class LazyList extends JsonSerializable.Base {
+        private final Iterator<?> iterator;
+        private final AutoCloseable source;
+        private final int first;
+        private final int size;
+        private String cursor = null;
+
+        LazyList(Iterator<?> iterator, AutoCloseable source, int first, int size) {
+            this.iterator = iterator;
+            this.source = source;
+            this.first = first;
+            this.size = size;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartArray();
+            int read = 0;
+            int written = 0;
+            try {
+                while (written < size && iterator.hasNext()) {
+                    Object value = iterator.next();
+                    read++;
+                    if (value != null) {
+                        provider.defaultSerializeValue(value, generator);
+                        written++;
+                    }
+                }
+                if (iterator.hasNext()) {
+                    cursor = toCursor(first + read);
+                }
+            } finally {
+                close();
+            }
+            generator.writeEndArray();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            serialize(generator, provider);
+        }
+
+        void close() {
+            closeQuietly(source);
+        }
+
+        @Override
+        public String toString() {
+            return "[...]";
+        }
+    }
 
     private final ObjectMapper mapper = JacksonConfiguration.objectMapper();
+    // The generator is flushed by its owner, not after each value.
+    private final ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     private final Map<String, Object> model;
     private Map<String, Object> errorMap = null;
     private final Date started;
     private HttpStatus status = HttpStatus.OK;
+    private final Map<String, CompletableFuture<?>> futures = new LinkedHashMap<>();
+    private long deadline = DEFAULT_DEADLINE;
+    private FieldSelector fields = FieldSelector.ALL;
 
     public DataModel() {
         this.model = new HashMap<>();
@@ -52,7 +215,7 @@ public class DataModel implements Map<String, Object> {
      * @param ex the exception
      */
     public void setException(Throwable ex) {
-        model.clear();
+        clear();
         this.status = HttpStatus.INTERNAL_SERVER_ERROR;
         errorMap = new HashMap<>();
         errorMap.put("status", status.ordinal());
@@ -65,20 +228,205 @@ public class DataModel implements Map<String, Object> {
     }
 
 
+    /**
+     * Write the model. This is the only place where the model is serialized, whatever the kind
+     * of response.
+     *
+     * @param map the model.
+     * @param generator the generator.
+     * @throws IOException if the model can not be written.
+     */
+    protected void writeModel(Map<String, Object> map, JsonGenerator generator) throws IOException {
+        Map<String, String> cursors = new LinkedHashMap<>();
+        ObjectWriter projection = PROJECTION_WRITER.withAttribute(FieldSelector.class, fields);
+        generator.writeStartObject();
+        for (Entry<String, Object> entry : map.entrySet()) {
+            FieldSelector selector = (ERRORS_KEY.equals(entry.getKey()) ? FieldSelector.ALL : fields.child(entry.getKey()));
+            if (selector == null) {
+                // Not requested: never serialized.
+                if (entry.getValue() instanceof LazyList) {
+                    closeQuietly(((LazyList) entry.getValue()).source);
+                }
+                continue;
+            }
+            generator.writeFieldName(entry.getKey());
+            (selector.isAll() ? writer : projection).writeValue(generator, entry.getValue());
+            if (entry.getValue() instanceof LazyList && ((LazyList) entry.getValue()).cursor != null) {
+                cursors.put(entry.getKey(), ((LazyList) entry.getValue()).cursor);
+            }
+        }
+        if (!cursors.isEmpty()) {
+            if (map.containsKey(CURSOR_KEY)) {
+                throw new IllegalStateException("The key \"" + CURSOR_KEY + "\" is needed by the cursors of the lazy lists.");
+            }
+            // Known only once the lists have been written.
+            generator.writeFieldName(CURSOR_KEY);
+            writer.writeValue(generator, cursors);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void closeQuietly(AutoCloseable source) {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (Exception ex) {
+                LOG.warn("Can not close the source: {}", ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Create the opaque cursor of a page.
+     *
+     * @param offset the index of the first element of the page.
+     * @return the cursor.
+     */
+    static String toCursor(int offset) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("o:" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the index of the first element of the page given by a cursor sent by the client.
+     *
+     * @param cursor the cursor (null for the first page).
+     * @return the index.
+     * @throws IllegalArgumentException if the cursor is not valid.
+     */
+    public static int offsetOf(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (decoded.startsWith("o:")) {
+                int offset = Integer.parseInt(decoded.substring(2));
+                if (offset >= 0) {
+                    return offset;
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            // Not Base64 or not a number: invalid.
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
     protected ResponseEntity<String> asResponse(Map<String, Object> map, HttpHeaders headers, HttpStatus code) {
-        String output;
+        return asResponse(map, headers, code, null);
+    }
+
+    /**
+     * Serialize the model. A successful response has an <code>ETag</code> computed while
+     * writing (a CRC32 of the bytes and their number): when the request headers are given and
+     * their <code>If-None-Match</code> matches, a 304 response without body is returned.
+     * <p>
+     * The responses of {@link #success(HttpHeaders)} are built by this method, which can be
+     * overridden like {@link #asResponse(Map, HttpHeaders, HttpStatus)}.
+     * </p>
+     *
+     * @param map the model.
+     * @param headers the headers of the response (can be null).
+     * @param code the status.
+     * @param requestHeaders the headers of the request (null to not check them).
+     * @return the response.
+     */
+    protected ResponseEntity<String> asResponse(Map<String, Object> map, HttpHeaders headers, HttpStatus code, HttpHeaders requestHeaders) {
+        ResponseEntity<byte[]> response = asBytes(map, headers, code, requestHeaders, false);
+        String output = (response.getBody() == null ? null : new String(response.getBody(), StandardCharsets.UTF_8));
+        return new ResponseEntity<>(output, response.getHeaders(), response.getStatusCode());
+    }
+
+    /**
+     * Serialize the model as bytes, compressed if the client accepts it (see
+     * {@link #asResponse(Map, HttpHeaders, HttpStatus, HttpHeaders)} for the entity tag).
+     */
+    private ResponseEntity<byte[]> asBytes(Map<String, Object> map, HttpHeaders headers, HttpStatus code, HttpHeaders requestHeaders, boolean compress) {
+        byte[] output;
+        long crc = 0L;
+        String etag = null;
         HttpHeaders responseHeaders = Optional.ofNullable(headers).orElse(new HttpHeaders());
 
         try {
-            output = mapper.writeValueAsString(map);
-        } catch (JsonProcessingException ex) {
-            output = "{error:{\"code\":\"internal\", \"message\": \"Erreur interne de comversion\"}}";
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            CheckedOutputStream checked = new CheckedOutputStream(buffer, new CRC32());
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(checked, JsonEncoding.UTF8)) {
+                writeModel(map, generator);
+            }
+            output = buffer.toByteArray();
+            crc = checked.getChecksum().getValue();
+            etag = toETag(crc, buffer.size());
+        } catch (IOException ex) {
+            output = "{error:{\"code\":\"internal\", \"message\": \"Erreur interne de comversion\"}}".getBytes(StandardCharsets.UTF_8);
             code = HttpStatus.INTERNAL_SERVER_ERROR;
         }
         responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+        String encoding = null;
+        if (compress && requestHeaders != null) {
+            responseHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (output.length >= HttpCompression.MIN_SIZE) {
+                encoding = HttpCompression.negotiate(requestHeaders.getOrEmpty(HttpHeaders.ACCEPT_ENCODING));
+            }
+        }
+        if (etag != null && code.is2xxSuccessful()) {
+            // Each encoding is a different representation, with its own entity tag.
+            responseHeaders.setETag(encoding == null ? etag : withCoding(etag, encoding));
+            if (requestHeaders != null && matches(requestHeaders.getIfNoneMatch(), etag)) {
+                return new ResponseEntity<>(responseHeaders, HttpStatus.NOT_MODIFIED);
+            }
+        } else {
+            etag = null;
+        }
+        if (encoding != null) {
+            if (etag == null) {
+                // The CRC is needed by gzip.
+                CRC32 checksum = new CRC32();
+                checksum.update(output, 0, output.length);
+                crc = checksum.getValue();
+            }
+            output = HttpCompression.compress(output, crc, encoding, etag);
+            responseHeaders.set(HttpHeaders.CONTENT_ENCODING, encoding);
+        }
         return new ResponseEntity<>(output, responseHeaders, code);
     }
 
+    static String toETag(long crc, int length) {
+        return "\"" + Long.toHexString(crc) + "-" + Integer.toHexString(length) + "\"";
+    }
+
+    /**
+     * The entity tag of an encoded representation: the coding is added to the tag.
+     *
+     * @param etag the entity tag of the payload (not encoded).
+     * @param encoding the content encoding.
+     * @return the entity tag.
+     */
+    private static String withCoding(String etag, String encoding) {
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * Check the <code>If-None-Match</code> header (weak comparison). The tag of any encoding of
+     * the payload matches: the content is the same.
+     *
+     * @param ifNoneMatch the entity tags of the header.
+     * @param etag the entity tag of the payload (not encoded).
+     * @return true if the response has not changed.
+     */
+    private static boolean matches(List<String> ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch) {
+            String value = tag.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)
+                    || value.equals(withCoding(etag, HttpCompression.GZIP))
+                    || value.equals(withCoding(etag, HttpCompression.DEFLATE))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Return the data model as a success. This is more or less the only way to
      * return data.
@@ -86,16 +434,335 @@ public class DataModel implements Map<String, Object> {
     public ResponseEntity<String> success() {
         HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+        HttpStatus code = prepareSuccess();
+        return asResponse(model, responseHeaders, code);
+    }
+
+    /**
+     * Return the data model as a success, answering a conditional request: if the response has
+     * not changed since the version known by the client (the <code>If-None-Match</code> header),
+     * the response is a 304 without body.
+     *
+     * <pre>
+     *     &#64;GetMapping("/dashboard")
+     *     public ResponseEntity&lt;String&gt; dashboard(&#64;RequestHeader HttpHeaders headers) {
+     *         DataModel model = new DataModel();
+     *         ...
+     *         return model.success(headers);
+     *     }
+     * </pre>
+     *
+     * @param requestHeaders the headers of the request (can be null).
+     * @return the response.
+     */
+    public ResponseEntity<String> success(HttpHeaders requestHeaders) {
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+        HttpStatus code = prepareSuccess();
+        return asResponse(model, responseHeaders, code, requestHeaders == null ? new HttpHeaders() : requestHeaders);
+    }
+
+    /**
+     * Wait for the asynchronous values and mark an empty model as a success.
+     *
+     * @return the status of the response.
+     */
+    private HttpStatus prepareSuccess() {
+        HttpStatus code = awaitFutures();
         if (model.size() == 0) {
             // If no data returned, just add the success
             model.put("success", true);
         }
-        return asResponse(model, responseHeaders, HttpStatus.OK);
+        return code;
+    }
+
+    /**
+     * Return the data model as a success, compressed with <code>gzip</code> or
+     * <code>deflate</code> when the client accepts it (the <code>Accept-Encoding</code> header).
+     * The small responses are not compressed. The compressed payloads are cached with their
+     * entity tag: an unchanged response is not compressed again. The conditional requests are
+     * handled as by {@link #success(HttpHeaders)}.
+     * <p>
+     * The compression of the servlet container must be disabled for the JSON responses,
+     * otherwise they would be compressed twice.
+     * </p>
+     *
+     * @param requestHeaders the headers of the request.
+     * @return the response.
+     */
+    public ResponseEntity<byte[]> compressed(HttpHeaders requestHeaders) {
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+        HttpStatus code = prepareSuccess();
+        return asBytes(model, responseHeaders, code, requestHeaders == null ? new HttpHeaders() : requestHeaders, true);
+    }
+
+    /**
+     * Compute a value in parallel, using a bounded executor shared by all the models. The value
+     * is put in the model when the response is created.
+     *
+     * @param key the key.
+     * @param supplier computes the value (typically calls a backend).
+     * @return the model.
+     */
+    public DataModel async(String key, Supplier<?> supplier) {
+        return async(key, supplier, ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Compute a value in parallel with the executor given. When the executor rejects the
+     * supplier (it is saturated), the value is not computed and is reported in the errors
+     * (the response is partial).
+     *
+     * @param key the key.
+     * @param supplier computes the value (typically calls a backend).
+     * @param executor the executor.
+     * @return the model.
+     */
+    public DataModel async(String key, Supplier<?> supplier, Executor executor) {
+        CompletableFuture<?> future;
+        try {
+            future = CompletableFuture.supplyAsync(supplier, executor);
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Can not compute {}: the executor is saturated", key);
+            future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+        }
+        return putFuture(key, future);
+    }
+
+    /**
+     * Put a value computed asynchronously. The response waits for it until the deadline.
+     *
+     * @param key the key.
+     * @param future the value.
+     * @return the model.
+     */
+    public DataModel putFuture(String key, CompletableFuture<?> future) {
+        model.remove(key);
+        futures.put(key, future);
+        return this;
+    }
+
+    /**
+     * Write only the requested fields, for example <code>a,b.c,d[*].id</code> (see
+     * {@link FieldSelector#parse(String)}). The errors and the cursors are always written.
+     *
+     * @param fields the fields requested (all the fields if null or empty).
+     * @return the model.
+     * @throws IllegalArgumentException if the specification is malformed.
+     */
+    public DataModel setFields(String fields) {
+        return setFields(FieldSelector.parse(fields));
+    }
+
+    /**
+     * Write only the requested fields. The selector can be parsed once and shared by the models.
+     *
+     * @param fields the fields requested.
+     * @return the model.
+     */
+    public DataModel setFields(FieldSelector fields) {
+        Assert.notNull(fields, "fields");
+        this.fields = fields;
+        return this;
+    }
+
+    /**
+     * Set the maximum time to wait for the values computed asynchronously. The time is counted
+     * since the creation of the model ({@link #DEFAULT_DEADLINE} by default).
+     *
+     * @param timeout the time.
+     * @param unit the unit of the time.
+     * @return the model.
+     */
+    public DataModel setDeadline(long timeout, TimeUnit unit) {
+        this.deadline = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Wait for the values computed asynchronously and put them in the model. The values failed
+     * or not available before the deadline are reported in the errors.
+     *
+     * @return the status of the response.
+     */
+    private HttpStatus awaitFutures() {
+        if (futures.isEmpty()) {
+            return HttpStatus.OK;
+        }
+        Map<String, Object> errors = new LinkedHashMap<>();
+        long limit = started.getTime() + deadline;
+        for (Entry<String, CompletableFuture<?>> entry : futures.entrySet()) {
+            CompletableFuture<?> future = entry.getValue();
+            try {
+                long remaining = Math.max(0L, limit - System.currentTimeMillis());
+                model.put(entry.getKey(), future.get(remaining, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                errors.put(entry.getKey(), errorOf("timeout", "Not available after " + deadline + " ms"));
+            } catch (ExecutionException ex) {
+                Throwable cause = (ex.getCause() == null ? ex : ex.getCause());
+                if (cause instanceof RejectedExecutionException) {
+                    errors.put(entry.getKey(), errorOf("rejected", "Not computed: the server is overloaded"));
+                    continue;
+                }
+                LOG.warn("Can not get {}: {}", entry.getKey(), cause.toString());
+                errors.put(entry.getKey(), errorOf(cause.getClass().getSimpleName(), cause.getMessage()));
+            } catch (CancellationException ex) {
+                errors.put(entry.getKey(), errorOf("cancelled", "Cancelled"));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                errors.put(entry.getKey(), errorOf("interrupted", "Interrupted"));
+            }
+        }
+        futures.clear();
+        if (errors.isEmpty()) {
+            return HttpStatus.OK;
+        }
+        if (model.containsKey(ERRORS_KEY)) {
+            throw new IllegalStateException("The key \"" + ERRORS_KEY + "\" is needed by the errors of the asynchronous values.");
+        }
+        model.put(ERRORS_KEY, errors);
+        return HttpStatus.PARTIAL_CONTENT;
+    }
+
+    private static Map<String, Object> errorOf(String code, String message) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+        return error;
+    }
+
+    /**
+     * Return the data model as a success, the JSON being written directly to the output stream of
+     * the response instead of being built in memory. Use it for the large models.
+     * <p>
+     * The status and the headers are sent before the model is serialized: if the serialization
+     * fails, the response is truncated (and the failure logged).
+     * </p>
+     *
+     * @return the response.
+     */
+    public ResponseEntity<StreamingResponseBody> stream() {
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+        HttpStatus code = awaitFutures();
+        if (model.size() == 0) {
+            model.put("success", true);
+        }
+        StreamingResponseBody body = output -> {
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+                // The container closes the stream of the response.
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                writeModel(model, generator);
+            } catch (IOException ex) {
+                LOG.error("Can not write the response: {}", ex.toString());
+                throw ex;
+            }
+        };
+        return new ResponseEntity<>(body, responseHeaders, code);
+    }
+
+    /**
+     * Return the records as a NDJSON response (one JSON record per line). The records are read
+     * and written one by one, the response being flushed regularly (chunked transfer): the memory
+     * used does not depend on the number of records.
+     * <p>
+     * The status is sent before the first record: if reading the records fails, the last line is
+     * an error record (<code>{"error":{"code":...,"message":...}}</code>) and the response ends.
+     * </p>
+     *
+     * @param records the records (closed once written).
+     * @return the response.
+     */
+    public static ResponseEntity<StreamingResponseBody> ndjson(Stream<?> records) {
+        return ndjson(records.iterator(), records);
+    }
+
+    /**
+     * Return the records as a NDJSON response (one JSON record per line). This method accepts
+     * a {@link PowerStream}, which is closed once written.
+     *
+     * @param records the records.
+     * @return the response.
+     * @see #ndjson(Stream)
+     */
+    public static ResponseEntity<StreamingResponseBody> ndjson(Iterator<?> records) {
+        return ndjson(records, records instanceof AutoCloseable ? (AutoCloseable) records : null);
+    }
+
+    private static ResponseEntity<StreamingResponseBody> ndjson(Iterator<?> records, AutoCloseable source) {
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(MediaType.APPLICATION_NDJSON);
+        StreamingResponseBody body = output -> {
+            ObjectWriter writer = JacksonConfiguration.objectMapper().writer();
+            // Each record is serialized in full before being written: a failure never leaves
+            // a partial line in the response.
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            long interval = TimeUnit.MILLISECONDS.toNanos(NDJSON_FLUSH_INTERVAL);
+            long deadline = 0L; // The time to flush the records written (0 if none)
+            try {
+                while (true) {
+                    if (deadline != 0L && !isReady(records, deadline - System.nanoTime())) {
+                        // The next record is not ready: the records written are sent first.
+                        output.flush();
+                        deadline = 0L;
+                    }
+                    Object record;
+                    try {
+                        if (!records.hasNext()) {
+                            break;
+                        }
+                        record = records.next();
+                        if (record == null) {
+                            continue;
+                        }
+                        buffer.reset();
+                        writer.writeValue(buffer, record);
+                    } catch (RuntimeException | JsonProcessingException ex) {
+                        LOG.error("NDJSON response interrupted: {}", ex.toString());
+                        Map<String, Object> error = errorOf(ex.getClass().getSimpleName(), ex.getMessage());
+                        buffer.reset();
+                        writer.writeValue(buffer, Collections.singletonMap("error", error));
+                        buffer.write('\n');
+                        buffer.writeTo(output);
+                        break;
+                    }
+                    buffer.write('\n');
+                    buffer.writeTo(output);
+                    long now = System.nanoTime();
+                    if (deadline == 0L) {
+                        deadline = now + interval;
+                    } else if (now - deadline >= 0L) {
+                        output.flush();
+                        deadline = 0L;
+                    }
+                }
+            } finally {
+                closeQuietly(source);
+            }
+        };
+        return new ResponseEntity<>(body, responseHeaders, HttpStatus.OK);
+    }
+
+    /**
+     * Check the next record can be read without blocking, waiting at most the timeout. Only a
+     * {@link PowerStream} can tell it: any other iterator is supposed to be ready (the records
+     * are flushed at each interval).
+     *
+     * @param records the records.
+     * @param timeout the maximum time to wait (in nanoseconds).
+     * @return true if the next record (or the end of the records) is ready.
+     */
+    private static boolean isReady(Iterator<?> records, long timeout) {
+        return !(records instanceof PowerStream) || ((PowerStream<?>) records).await(timeout, TimeUnit.NANOSECONDS);
     }
 
     public ResponseEntity<String> error() {
         HttpHeaders responseHeaders = new HttpHeaders();
-        model.clear();
+        clear();
         model.replace("error", errorMap);
         return asResponse(model, responseHeaders, status);
     }
@@ -168,6 +835,71 @@ public class DataModel implements Map<String, Object> {
         putList(key, list);
     }
 
+    /**
+     * Put a page of a stream, read (then closed) when the response is written: the elements are
+     * not copied in a list. The null elements are not written but count in the offset of the
+     * cursor. The value stored in the model can be written only once.
+     *
+     * @param key the key.
+     * @param stream the stream.
+     * @param cursor the cursor sent by the client (null for the first page).
+     * @param size the maximum number of elements of the page.
+     */
+    public void putLazy(String key, Stream<?> stream, String cursor, int size) {
+        int first = offsetOf(cursor);
+        putObject(key, new LazyList(stream.skip(first).iterator(), stream, first, size));
+    }
+
+    /**
+     * Put a page of elements, read when the response is written: the elements are not copied in
+     * a list. The null elements are not written but count in the offset of the cursor. The
+     * elements must not change until the response is written, and the value stored in the model
+     * can be written only once.
+     * <p>
+     * The page of a {@link RandomAccess} list is reached directly: a deep page does not read the
+     * elements before it.
+     * </p>
+     *
+     * @param key the key.
+     * @param coll the elements.
+     * @param cursor the cursor sent by the client (null for the first page).
+     * @param size the maximum number of elements of the page.
+     */
+    public void putLazy(String key, Iterable<?> coll, String cursor, int size) {
+        int first = offsetOf(cursor);
+        Iterator<?> iterator;
+        if (coll instanceof List && coll instanceof RandomAccess) {
+            List<?> list = (List<?>) coll;
+            iterator = list.subList(Math.min(first, list.size()), list.size()).iterator();
+        } else {
+            iterator = coll.iterator();
+            for (int i = 0; i < first && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+        }
+        putObject(key, new LazyList(iterator, null, first, size));
+    }
+
+    /**
+     * Put JSON already serialized (UTF-8 encoded). It is written verbatim, then it must be valid.
+     *
+     * @param key the key.
+     * @param json the JSON.
+     */
+    public void putRaw(String key, byte[] json) {
+        putRaw(key, RawJson.of(json));
+    }
+
+    /**
+     * Put JSON already serialized, typically a fragment given by a {@link JsonFragmentCache}.
+     *
+     * @param key the key.
+     * @param json the JSON.
+     */
+    public void putRaw(String key, RawJson json) {
+        putObject(key, json);
+    }
+
     public void putMap(String key, Map<String, ?> map) {
         putObject(key, map);
     }
@@ -248,7 +980,10 @@ public class DataModel implements Map<String, Object> {
     @Override
     public String toString() {
         try {
-            return mapper.writeValueAsString(model);
+            // Do not consume the lazy lists
+            Map<String, Object> copy = new LinkedHashMap<>(model);
+            copy.replaceAll((key, value) -> value instanceof LazyList ? value.toString() : value);
+            return mapper.writeValueAsString(copy);
         } catch (JsonProcessingException ex) {
             return super.toString();
         }
@@ -301,7 +1036,15 @@ public class DataModel implements Map<String, Object> {
 
     @Override
     public void clear() {
+        // The lazy lists will never be written: release their source.
+        model.values().forEach(value -> {
+            if (value instanceof LazyList) {
+                ((LazyList) value).close();
+            }
+        });
         model.clear();
+        futures.values().forEach(future -> future.cancel(true));
+        futures.clear();
     }
 
     @Override
@@ -0,0 +1,343 @@
+package com.oxande.commons.oxutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Sort a stream which does not fit in memory (external merge sort).
+ * <p>
+ * The elements are read until the memory budget is reached, then sorted and written in a
+ * temporary file (a "run") using the {@link Codec}. Once the input is fully read, the runs are
+ * merged by {@link PowerStream#mergeSorted(Comparator, List, int)}: each run is read by its own
+ * thread, the consumer only keeps the head of each run in memory. When there are too many runs,
+ * they are first merged by groups into bigger runs. If the input fits in the budget, nothing is
+ * written to the disk. The queues reading the runs ahead are sized from the memory budget too.
+ * </p>
+ *
+ * <pre>
+ *     try (Stream&lt;User&gt; sorted = ExternalSort.sort(dao.streamUsers(), Comparator.comparing(User::getEmail), USER_CODEC, 512L &lt;&lt; 20)) {
+ *         sorted.forEach(...);
+ *     }
+ * </pre>
+ *
+ * <p>
+ * The sort is stable. The input is read (and the runs written) when {@link #sort} is called; the
+ * temporary files are deleted when the returned stream is closed.
+ * </p>
+ */
+public final class ExternalSort {
+    private static final Logger LOG = LoggerFactory.getLogger(ExternalSort.class);
+
+    /**
+     * The estimated memory used by an element in addition to its encoded size (the header of the
+     * object and the reference in the list). With the default weigher, the encoded bytes are kept
+     * with the element to be written without being encoded again: an element then weighs twice its
+     * encoded size plus this overhead.
+     */
+    public static final long OBJECT_OVERHEAD = 32L;
+
+    /**
+     * The maximum number of runs merged at once.
+     */
+    static final int MAX_FAN_IN = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MERGE_CAPACITY = 1000;
+
+    private ExternalSort() {
+    }
+
+    /**
+     * Sort the stream, the memory used by an element being estimated from its encoded size.
+     *
+     * @param source the stream to sort (closed once read).
+     * @param comparator the comparator.
+     * @param codec the codec used to write the runs.
+     * @param memoryBudget the memory available for a run (in bytes).
+     * @param <T> the type of the elements.
+     * @return the sorted stream (to close).
+     */
+    public static <T> Stream<T> sort(Stream<T> source, Comparator<? super T> comparator, Codec<T> codec, long memoryBudget) {
+        return doSort(source, comparator, codec, null, memoryBudget, null);
+    }
+
+    /**
+     * Sort the stream.
+     *
+     * @param source the stream to sort (closed once read).
+     * @param comparator the comparator.
+     * @param codec the codec used to write the runs.
+     * @param weigher the memory used by an element (in bytes).
+     * @param memoryBudget the memory available for a run (in bytes).
+     * @param directory the directory of the temporary files (the temporary directory if null).
+     * @param <T> the type of the elements.
+     * @return the sorted stream (to close).
+     */
+    public static <T> Stream<T> sort(Stream<T> source, Comparator<? super T> comparator, Codec<T> codec,
+                                     ToLongFunction<? super T> weigher, long memoryBudget, File directory) {
+        Assert.notNull(weigher, "weigher");
+        return doSort(source, comparator, codec, weigher, memoryBudget, directory);
+    }
+
+    /**
+     * Sort the stream. Without weigher, each element is encoded once: its weight is computed
+     * from the encoded bytes, which are kept to write the run.
+     */
+    private static <T> Stream<T> doSort(Stream<T> source, Comparator<? super T> comparator, Codec<T> codec,
+                                        ToLongFunction<? super T> weigher, long memoryBudget, File directory) {
+        Assert.notNull(comparator, "comparator");
+        Assert.notNull(codec, "codec");
+        Assert.isTrue(memoryBudget > 0, "The memory budget must be strictly positive.");
+        List<File> runs = new ArrayList<>();
+        List<Element<T>> buffer = new ArrayList<>();
+        Comparator<Element<T>> order = (a, b) -> comparator.compare(a.value, b.value);
+        long totalWeight = 0L;
+        long count = 0L;
+        try (Stream<T> input = source) {
+            Encoder<T> encoder = (weigher == null ? new Encoder<>(codec) : null);
+            long weight = 0L;
+            Iterator<T> it = input.iterator();
+            while (it.hasNext()) {
+                T value = it.next();
+                long w;
+                if (encoder == null) {
+                    buffer.add(new Element<>(value, null));
+                    w = weigher.applyAsLong(value);
+                } else {
+                    byte[] bytes = encoder.encode(value);
+                    buffer.add(new Element<>(value, bytes));
+                    w = OBJECT_OVERHEAD + 2L * bytes.length;
+                }
+                weight += w;
+                totalWeight += w;
+                count++;
+                if (weight >= memoryBudget) {
+                    runs.add(writeRun(buffer, order, codec, directory));
+                    buffer = new ArrayList<>(buffer.size());
+                    weight = 0L;
+                }
+            }
+            if (runs.isEmpty()) {
+                // Everything fits in memory.
+                buffer.sort(order);
+                return buffer.stream().map(e -> e.value);
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(writeRun(buffer, order, codec, directory));
+            }
+            buffer = null; // Free the memory before merging
+            while (runs.size() > MAX_FAN_IN) {
+                runs = mergeRuns(runs, comparator, codec, directory);
+            }
+        } catch (IOException ex) {
+            runs.forEach(ExternalSort::delete);
+            throw new UncheckedIOException("Can not write the sorted runs", ex);
+        } catch (RuntimeException ex) {
+            runs.forEach(ExternalSort::delete);
+            throw ex;
+        }
+        // The buffer is released: the budget is used by the queues reading the runs ahead.
+        long average = Math.max(1L, totalWeight / count);
+        int capacity = (int) Math.max(1L, Math.min(MERGE_CAPACITY, memoryBudget / average / runs.size()));
+        LOG.debug("Merging {} run(s), {} element(s) read ahead by run...", runs.size(), capacity);
+        List<Consumer<PowerStream.Pusher<T>>> producers = new ArrayList<>(runs.size());
+        for (File run : runs) {
+            producers.add(p -> {
+                try (RunReader<T> reader = new RunReader<>(run, codec)) {
+                    while (reader.hasNext()) {
+                        p.put(reader.next());
+                    }
+                } catch (IOException ex) {
+                    p.throwException("Can not read the run " + run, ex);
+                }
+            });
+        }
+        List<File> files = runs;
+        return PowerStream.mergeSorted(comparator, producers, capacity)
+                .onClose(() -> files.forEach(ExternalSort::delete));
+    }
+
+    /**
+     * Sort the elements and write them in a temporary file. The encoded bytes are written as is
+     * when available.
+     *
+     * @return the file.
+     */
+    private static <T> File writeRun(List<Element<T>> elements, Comparator<Element<T>> order, Codec<T> codec, File directory) throws IOException {
+        elements.sort(order);
+        return write(elements.iterator(), (e, out) -> {
+            if (e.bytes == null) {
+                codec.encode(e.value, out);
+            } else {
+                out.write(e.bytes);
+            }
+        }, directory);
+    }
+
+    /**
+     * Merge the runs by groups of {@link #MAX_FAN_IN}.
+     *
+     * @return the new runs.
+     */
+    private static <T> List<File> mergeRuns(List<File> runs, Comparator<? super T> comparator, Codec<T> codec, File directory) throws IOException {
+        List<File> merged = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                List<RunReader<T>> readers = new ArrayList<>(group.size());
+                try {
+                    for (File run : group) {
+                        readers.add(new RunReader<>(run, codec));
+                    }
+                    merged.add(write(new SortedMergeIterator<>(readers, comparator), codec, directory));
+                } finally {
+                    for (RunReader<T> reader : readers) {
+                        reader.close();
+                    }
+                }
+                group.forEach(ExternalSort::delete);
+            }
+        } catch (IOException | RuntimeException ex) {
+            merged.forEach(ExternalSort::delete);
+            throw ex;
+        }
+        return merged;
+    }
+
+    /**
+     * Write an element of a run.
+     */
+    private interface Writer<E> {
+        void write(E element, DataOutputStream out) throws IOException;
+    }
+
+    private static <T> File write(Iterator<T> values, Codec<T> codec, File directory) throws IOException {
+        return write(values, codec::encode, directory);
+    }
+
+    private static <E> File write(Iterator<E> values, Writer<? super E> writer, File directory) throws IOException {
+        File file = (directory == null
+                ? Files.createTempFile("sort-", ".run")
+                : Files.createTempFile(directory.toPath(), "sort-", ".run")).toFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE))) {
+            while (values.hasNext()) {
+                // Each element is preceded by a marker, the end of the run by another one.
+                out.writeBoolean(true);
+                writer.write(values.next(), out);
+            }
+            out.writeBoolean(false);
+        } catch (IOException | RuntimeException ex) {
+            delete(file);
+            throw ex;
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ex) {
+            LOG.warn("Can not delete {}: {}", file, ex.toString());
+        }
+    }
+
+    /**
+     * Read a run.
+     */
+    private static final class RunReader<T> implements Iterator<T>, Closeable {
+        private final DataInputStream in;
+        private final Codec<T> codec;
+        private Boolean available = null;
+
+        RunReader(File file, Codec<T> codec) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE));
+            this.codec = codec;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (available == null) {
+                try {
+                    available = in.readBoolean();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Can not read the run", ex);
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            available = null;
+            try {
+                return codec.decode(in);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can not read the run", ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * An element waiting to be sorted, with its encoded bytes (null when not yet encoded).
+     */
+    private static final class Element<T> {
+        private final T value;
+        private final byte[] bytes;
+
+        Element(T value, byte[] bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Encode the elements in a reused buffer.
+     */
+    private static final class Encoder<T> {
+        private final Codec<T> codec;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(buffer);
+
+        Encoder(Codec<T> codec) {
+            this.codec = codec;
+        }
+
+        byte[] encode(T value) {
+            buffer.reset();
+            try {
+                codec.encode(value, out);
+                out.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can not encode " + value, ex);
+            }
+            return buffer.toByteArray();
+        }
+    }
+}
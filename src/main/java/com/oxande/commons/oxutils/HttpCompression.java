@@ -0,0 +1,200 @@
+package com.oxande.commons.oxutils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * The compression of the responses (<code>gzip</code> and <code>deflate</code> content encodings).
+ * <p>
+ * Each thread keeps its own {@link Deflater}: creating one allocates native memory and the
+ * compression is done by the threads of the requests, then a deflater is reused instead of being
+ * created (and finalized) for each response. The compressed payloads are cached by entity tag and
+ * encoding: an unchanged response is served without being compressed again. The entity tag is
+ * only a checksum, then the cached payload is used only if its source is identical (a collision
+ * never serves the payload of another response).
+ * </p>
+ */
+final class HttpCompression {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    /**
+     * The responses smaller than this size (in bytes) are not compressed: the gain does not pay
+     * the cost.
+     */
+    static final int MIN_SIZE = 1024;
+
+    /**
+     * The maximum size of the cache of compressed payloads (in bytes).
+     */
+    static final long CACHE_SIZE = 16L << 20;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // The deflater writes raw data, the headers and trailers are written here.
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private static final Map<String, Cached> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    private static long cached = 0L;
+
+    private HttpCompression() {
+    }
+
+    /**
+     * A compressed payload with its source.
+     */
+    private static final class Cached {
+        final byte[] data;
+        final byte[] compressed;
+
+        Cached(byte[] data, byte[] compressed) {
+            this.data = data;
+            this.compressed = compressed;
+        }
+
+        long size() {
+            return data.length + (long) compressed.length;
+        }
+    }
+
+    /**
+     * Select the encoding of the response from the <code>Accept-Encoding</code> header. The
+     * encoding with the best quality is selected, <code>gzip</code> being preferred when equal.
+     *
+     * @param acceptEncoding the values of the header.
+     * @return the encoding, null if the response must not be compressed.
+     */
+    static String negotiate(List<String> acceptEncoding) {
+        float any = -1f;
+        float explicitGzip = -1f;
+        float explicitDeflate = -1f;
+        for (String header : acceptEncoding) {
+            for (String value : header.split(",")) {
+                String[] parts = value.split(";");
+                String coding = parts[0].trim().toLowerCase();
+                float quality = 1f;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            quality = Float.parseFloat(param.substring(2));
+                        } catch (NumberFormatException ex) {
+                            quality = 0f;
+                        }
+                    }
+                }
+                if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                    explicitGzip = Math.max(explicitGzip, quality);
+                } else if (coding.equals(DEFLATE)) {
+                    explicitDeflate = Math.max(explicitDeflate, quality);
+                } else if (coding.equals("*")) {
+                    any = Math.max(any, quality);
+                }
+            }
+        }
+        float gzip = (explicitGzip >= 0f ? explicitGzip : Math.max(any, 0f));
+        float deflate = (explicitDeflate >= 0f ? explicitDeflate : Math.max(any, 0f));
+        if (gzip <= 0f && deflate <= 0f) {
+            return null;
+        }
+        return (gzip >= deflate ? GZIP : DEFLATE);
+    }
+
+    /**
+     * Compress a payload, using the cache when an entity tag is given. The payload is kept by
+     * the cache: it must not be modified.
+     *
+     * @param data the payload.
+     * @param crc the CRC32 of the payload (needed by <code>gzip</code>).
+     * @param encoding the encoding ({@link #GZIP} or {@link #DEFLATE}).
+     * @param etag the entity tag of the payload (null to not cache the result).
+     * @return the compressed payload.
+     */
+    static byte[] compress(byte[] data, long crc, String encoding, String etag) {
+        String key = (etag == null ? null : encoding + ":" + etag);
+        if (key != null) {
+            Cached entry;
+            synchronized (CACHE) {
+                entry = CACHE.get(key);
+            }
+            if (entry != null && Arrays.equals(entry.data, data)) {
+                return entry.compressed;
+            }
+        }
+        byte[] compressed = GZIP.equals(encoding) ? gzip(data, crc) : deflate(data);
+        Cached entry = new Cached(data, compressed);
+        if (key != null && entry.size() < CACHE_SIZE / 4) {
+            synchronized (CACHE) {
+                Cached previous = CACHE.put(key, entry);
+                cached += entry.size() - (previous == null ? 0L : previous.size());
+                Iterator<Cached> it = CACHE.values().iterator();
+                while (cached > CACHE_SIZE && it.hasNext()) {
+                    cached -= it.next().size();
+                    it.remove();
+                }
+            }
+        }
+        return compressed;
+    }
+
+    private static byte[] gzip(byte[] data, long crc) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 32);
+        // Magic number, method (deflate), no flag, no time, no extra flag, unknown OS
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}, 0, 10);
+        deflate(data, out);
+        writeInt(out, (int) crc, false);
+        writeInt(out, data.length, false);
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 32);
+        // The "deflate" content encoding is the zlib format (default compression, no dictionary).
+        out.write(0x78);
+        out.write(0x9c);
+        deflate(data, out);
+        Adler32 adler = new Adler32();
+        adler.update(data, 0, data.length);
+        writeInt(out, (int) adler.getValue(), true);
+        return out.toByteArray();
+    }
+
+    private static void deflate(byte[] data, ByteArrayOutputStream out) {
+        Deflater deflater = DEFLATERS.get();
+        byte[] buffer = BUFFERS.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean bigEndian) {
+        for (int i = 0; i < 4; i++) {
+            int shift = (bigEndian ? 24 - 8 * i : 8 * i);
+            out.write((value >>> shift) & 0xff);
+        }
+    }
+
+    /**
+     * Empty the cache of compressed payloads.
+     */
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cached = 0L;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.oxande.commons.oxutils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@link PowerStream} specialized for <code>long</code> values (typically the primary keys
+ * of a database scan). The values are neither boxed nor wrapped one by one: the producer fills
+ * <code>long[]</code> chunks which are transferred through the queue of an underlying
+ * {@link PowerStream}.
+ *
+ * <p>
+ * The chunk being filled is pushed when full, when the producer sleeps and when the producer
+ * ends. If the producer fails, the values of the current chunk are lost: call
+ * {@link Pusher#flush()} before if needed.
+ * </p>
+ *
+ * @see IntPowerStream
+ */
+public final class LongPowerStream implements PrimitiveIterator.OfLong, AutoCloseable {
+    /**
+     * The default number of values per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+    private static final long[] EMPTY = new long[0];
+
+    private final PowerStream<long[]> stream;
+    private long[] current = EMPTY;
+    private int position = 0;
+
+    /**
+     * Used to push the values into the stream.
+     */
+    public static final class Pusher {
+        private final PowerStream.Pusher<long[]> pusher;
+        private final int chunkSize;
+        private long[] chunk = null;
+        private int count = 0;
+
+        private Pusher(PowerStream.Pusher<long[]> pusher, int chunkSize) {
+            this.pusher = pusher;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Put a value into the stream.
+         *
+         * @param value the value.
+         */
+        public void put(long value) {
+            if (chunk == null) {
+                chunk = new long[chunkSize];
+            }
+            chunk[count++] = value;
+            if (count == chunkSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Push the values waiting in the current chunk.
+         */
+        public void flush() {
+            if (count > 0) {
+                long[] values = (count == chunkSize ? chunk : Arrays.copyOf(chunk, count));
+                // The consumer owns the chunk now.
+                chunk = null;
+                count = 0;
+                pusher.put(values);
+            }
+        }
+
+        /**
+         * You should never use this method which is mainly used for testing purposes.
+         *
+         * @param duration the sleep duration in milliseconds
+         */
+        public void sleep(long duration) {
+            flush();
+            pusher.sleep(duration);
+        }
+
+        public void throwException(Throwable t) {
+            pusher.throwException(t);
+        }
+    }
+
+    private LongPowerStream(PowerStream<long[]> stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position == current.length) {
+            if (!stream.hasNext()) {
+                return false;
+            }
+            current = stream.next();
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current[position++];
+    }
+
+    /**
+     * Stop the producer (see {@link PowerStream#close()}).
+     */
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    /**
+     * Create the iterator.
+     *
+     * @param producer the producer.
+     * @return the iterator.
+     */
+    public static LongPowerStream iterator(Consumer<Pusher> producer) {
+        return iterator(producer, 1000, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create the iterator.
+     *
+     * @param producer the producer.
+     * @param capacity the maximum number of values waiting in the stream.
+     * @param chunkSize the number of values per chunk.
+     * @return the iterator.
+     */
+    public static LongPowerStream iterator(Consumer<Pusher> producer, int capacity, int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "The chunk size must be strictly positive.");
+        PowerStream<long[]> stream = PowerStream.<long[]>builder()
+                .capacity(Math.max(1, capacity / chunkSize))
+                .iterator(p -> {
+                    Pusher pusher = new Pusher(p, chunkSize);
+                    producer.accept(pusher);
+                    pusher.flush();
+                });
+        return new LongPowerStream(stream);
+    }
+
+    /**
+     * Create the stream. Closing the stream stops the producer.
+     *
+     * @param producer the producer.
+     * @return the stream.
+     */
+    public static LongStream stream(Consumer<Pusher> producer) {
+        return stream(producer, 1000, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create the stream. Closing the stream stops the producer.
+     *
+     * @param producer the producer.
+     * @param capacity the maximum number of values waiting in the stream.
+     * @param chunkSize the number of values per chunk.
+     * @return the stream.
+     */
+    public static LongStream stream(Consumer<Pusher> producer, int capacity, int chunkSize) {
+        LongPowerStream iterator = iterator(producer, capacity, chunkSize);
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+}
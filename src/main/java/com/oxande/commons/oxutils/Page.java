@@ -0,0 +1,62 @@
+package com.oxande.commons.oxutils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of elements returned by a {@link PageFetcher}.
+ *
+ * @param <C> the type of the cursor.
+ * @param <T> the type of the elements.
+ */
+public final class Page<C, T> {
+    private final List<T> items;
+    private final C next;
+
+    private Page(List<T> items, C next) {
+        this.items = (items == null ? Collections.emptyList() : items);
+        this.next = next;
+    }
+
+    /**
+     * Create a page.
+     *
+     * @param items the elements of the page.
+     * @param next the cursor of the next page, null if this page is the last one.
+     * @param <C> the type of the cursor.
+     * @param <T> the type of the elements.
+     * @return the page.
+     */
+    public static <C, T> Page<C, T> of(List<T> items, C next) {
+        return new Page<>(items, next);
+    }
+
+    /**
+     * Create the last page.
+     *
+     * @param items the elements of the page.
+     * @param <C> the type of the cursor.
+     * @param <T> the type of the elements.
+     * @return the page.
+     */
+    public static <C, T> Page<C, T> last(List<T> items) {
+        return new Page<>(items, null);
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * The cursor of the next page.
+     *
+     * @return the cursor, null if this page is the last one.
+     */
+    public C getNext() {
+        return next;
+    }
+
+    public boolean isLast() {
+        return next == null;
+    }
+}
@@ -0,0 +1,127 @@
+package com.oxande.commons.oxutils;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Fetch the pages of a paginated source (a DAO, a REST API...). Used by
+ * {@link PowerStream#paged(PageFetcher, int)}.
+ * <p>
+ * There are two kinds of pagination:
+ * </p>
+ * <ul>
+ *     <li>cursor-based: the cursor of the next page is given by the previous page (a continuation
+ *     token, the last key read...). The pages must be fetched one after the other;</li>
+ *     <li>offset-based: the cursor of each page can be computed without fetching the previous one
+ *     (see {@link #following(Object)}), then several pages can be fetched at the same time.</li>
+ * </ul>
+ *
+ * <pre>
+ *     PageFetcher&lt;Long, User&gt; users = PageFetcher.offset(500, (offset, limit) -&gt; dao.getUsers(offset, limit));
+ *     PageFetcher&lt;String, Item&gt; items = PageFetcher.cursor(null, token -&gt; {
+ *         Response r = api.list(token);
+ *         return Page.of(r.getItems(), r.getNextToken());
+ *     });
+ * </pre>
+ *
+ * @param <C> the type of the cursor.
+ * @param <T> the type of the elements.
+ */
+public interface PageFetcher<C, T> {
+
+    /**
+     * The query of an offset-based pagination.
+     *
+     * @param <T> the type of the elements.
+     */
+    @FunctionalInterface
+    interface OffsetQuery<T> {
+        /**
+         * Get the elements of a page.
+         *
+         * @param offset the index of the first element.
+         * @param limit the maximum number of elements.
+         * @return the elements (less than <code>limit</code> for the last page).
+         */
+        List<T> fetch(long offset, int limit);
+    }
+
+    /**
+     * The cursor of the first page.
+     *
+     * @return the cursor (can be null).
+     */
+    C first();
+
+    /**
+     * Fetch a page.
+     *
+     * @param cursor the cursor of the page.
+     * @return the page.
+     */
+    Page<C, T> fetch(C cursor);
+
+    /**
+     * Compute the cursor of the page following the page given, without fetching it. This is
+     * only possible for an offset-based pagination.
+     *
+     * @param cursor the cursor of a page.
+     * @return the cursor of the next page, null if it can not be known in advance.
+     */
+    default C following(C cursor) {
+        return null;
+    }
+
+    /**
+     * Create a cursor-based fetcher.
+     *
+     * @param first the cursor of the first page (can be null).
+     * @param fetch the function returning a page for a cursor.
+     * @param <C> the type of the cursor.
+     * @param <T> the type of the elements.
+     * @return the fetcher.
+     */
+    static <C, T> PageFetcher<C, T> cursor(C first, Function<C, Page<C, T>> fetch) {
+        return new PageFetcher<C, T>() {
+            @Override
+            public C first() {
+                return first;
+            }
+
+            @Override
+            public Page<C, T> fetch(C cursor) {
+                return fetch.apply(cursor);
+            }
+        };
+    }
+
+    /**
+     * Create an offset-based fetcher. A page having less than <code>pageSize</code> elements is
+     * the last one.
+     *
+     * @param pageSize the number of elements of a page.
+     * @param query the query.
+     * @param <T> the type of the elements.
+     * @return the fetcher, the cursor being the offset of the page.
+     */
+    static <T> PageFetcher<Long, T> offset(int pageSize, OffsetQuery<T> query) {
+        Assert.isTrue(pageSize > 0, "The page size must be strictly positive.");
+        return new PageFetcher<Long, T>() {
+            @Override
+            public Long first() {
+                return 0L;
+            }
+
+            @Override
+            public Page<Long, T> fetch(Long offset) {
+                List<T> items = query.fetch(offset, pageSize);
+                return (items != null && items.size() >= pageSize ? Page.of(items, offset + pageSize) : Page.last(items));
+            }
+
+            @Override
+            public Long following(Long offset) {
+                return offset + pageSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,275 @@
+package com.oxande.commons.oxutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Consume the elements of a source on several threads, keeping the order of the elements having
+ * the same key. The key of each element is hashed to select a partition: each partition has its
+ * own bounded queue drained by its own thread. Then the elements of a given key are processed
+ * one at a time, in the order of the source, while the different keys are processed in parallel.
+ *
+ * <pre>
+ *     PartitionedConsumer&lt;Event&gt; consumer = PowerStream.partitioned(events, Event::getEntityId, 8, 1000, this::apply);
+ *     consumer.join();
+ * </pre>
+ *
+ * <p>
+ * The source is read by a dispatcher thread which is blocked when the queue of the partition is
+ * full. If the action fails for an element, all the partitions are stopped and the failure is
+ * thrown by {@link #join()}. The {@link #getMetrics()} method gives the depth of the queue and
+ * the number of elements processed of each partition: a partition much busier than the others
+ * means a hot key.
+ * </p>
+ *
+ * @param <T> the type of the elements.
+ */
+public class PartitionedConsumer<T> implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedConsumer.class);
+    private static final Object END_OF_STREAM = new Object();
+
+    /**
+     * The metrics of a partition.
+     */
+    public static class PartitionMetrics {
+        private final int partition;
+        private final BlockingQueue<Object> queue;
+        private final LongAdder processed = new LongAdder();
+
+        PartitionMetrics(int partition, BlockingQueue<Object> queue) {
+            this.partition = partition;
+            this.queue = queue;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        /**
+         * The number of elements waiting in the queue of the partition.
+         *
+         * @return the number of elements.
+         */
+        public int getQueueSize() {
+            return queue.size();
+        }
+
+        /**
+         * The number of elements processed by the partition.
+         *
+         * @return the number of elements.
+         */
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "Partition " + partition + ": " + getProcessed() + " processed, " + getQueueSize() + " waiting";
+        }
+    }
+
+    private final Function<? super T, ?> keyExtractor;
+    private final Consumer<? super T> action;
+    private final List<PartitionMetrics> partitions;
+    private final CountDownLatch finished;
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+    private volatile Throwable failure = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Start the dispatcher and the workers.
+     *
+     * @param source the source.
+     * @param onEnd called by the dispatcher when the source has been read (may be null).
+     * @param keyExtractor the key of an element.
+     * @param partitions the number of partitions (and of worker threads).
+     * @param capacity the capacity of the queue of each partition.
+     * @param action the action to apply on each element.
+     * @param executor the executor running the dispatcher and the workers.
+     */
+    PartitionedConsumer(Iterator<T> source, Runnable onEnd, Function<? super T, ?> keyExtractor, int partitions, int capacity,
+                        Consumer<? super T> action, Executor executor) {
+        Assert.isTrue(partitions > 0, "The number of partitions must be strictly positive.");
+        Assert.isTrue(capacity > 0, "The capacity must be strictly positive.");
+        this.keyExtractor = keyExtractor;
+        this.action = action;
+        this.partitions = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            this.partitions.add(new PartitionMetrics(i, new ArrayBlockingQueue<>(capacity)));
+        }
+        this.finished = new CountDownLatch(partitions + 1);
+        this.partitions.forEach(p -> executor.execute(() -> run(() -> work(p))));
+        executor.execute(() -> run(() -> dispatch(source, onEnd)));
+        LOG.debug("{} partition(s) started...", partitions);
+    }
+
+    private void run(Runnable task) {
+        threads.add(Thread.currentThread());
+        try {
+            task.run();
+        } catch (Throwable t) {
+            if (!closed) {
+                fail(t);
+            }
+        } finally {
+            threads.remove(Thread.currentThread());
+            // Do not leave the thread of the executor interrupted.
+            Thread.interrupted();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * The partition of an element. The hash is spread to avoid the keys differing only by their
+     * high bits going to the same partition.
+     *
+     * @param value the element.
+     * @return the partition.
+     */
+    int partitionOf(T value) {
+        int h = Objects.hashCode(keyExtractor.apply(value));
+        h ^= (h >>> 16);
+        return Math.floorMod(h, partitions.size());
+    }
+
+    private void dispatch(Iterator<T> source, Runnable onEnd) {
+        try {
+            while (!closed && source.hasNext()) {
+                T value = source.next();
+                transfer(partitions.get(partitionOf(value)).queue, value);
+            }
+            for (PartitionMetrics p : partitions) {
+                transfer(p.queue, END_OF_STREAM);
+            }
+        } finally {
+            if (onEnd != null) {
+                onEnd.run();
+            }
+        }
+    }
+
+    private void transfer(BlockingQueue<Object> queue, Object value) {
+        try {
+            while (!queue.offer(value, 100, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (!closed) {
+                fail(ex);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work(PartitionMetrics partition) {
+        try {
+            while (!closed) {
+                Object value = partition.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (value == END_OF_STREAM) {
+                    break;
+                } else if (value != null) {
+                    action.accept((T) value);
+                    partition.processed.increment();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (!closed) {
+                fail(ex);
+            }
+        }
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+            LOG.debug("Partitioned consumer failed: {}", t.toString());
+        }
+        close();
+    }
+
+    /**
+     * Wait until all the elements of the source have been processed.
+     *
+     * @throws PowerStream.PowerStreamException if the source or the action failed, or if the current
+     *                                          thread has been interrupted.
+     */
+    public void join() {
+        try {
+            finished.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PowerStream.PowerStreamException("Interrupted while waiting for the partitions", ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait until all the elements of the source have been processed or the timeout expires.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if finished, false if the timeout expired.
+     * @throws InterruptedException if the current thread has been interrupted.
+     * @throws PowerStream.PowerStreamException if the source or the action failed.
+     */
+    public boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean done = finished.await(timeout, unit);
+        if (done) {
+            checkFailure();
+        }
+        return done;
+    }
+
+    private void checkFailure() {
+        Throwable t = failure;
+        if (t != null) {
+            throw new PowerStream.PowerStreamException("The partitioned processing failed", t);
+        }
+    }
+
+    /**
+     * The metrics of the partitions (in the order of the partitions).
+     *
+     * @return the metrics.
+     */
+    public List<PartitionMetrics> getMetrics() {
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Stop the processing: the elements not yet processed are discarded.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            synchronized (threads) {
+                threads.forEach(Thread::interrupt);
+            }
+            partitions.forEach(p -> p.queue.clear());
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
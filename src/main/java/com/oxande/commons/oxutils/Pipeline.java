@@ -0,0 +1,325 @@
+package com.oxande.commons.oxutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A pipeline of stages, each stage being run by its own workers and reading its own bounded queue.
+ * This replaces the chaining of several {@link PowerStream}s by hand.
+ *
+ * <pre>
+ *     Pipeline.from(p -&gt; csvReader.forEach(p::put))
+ *           .stage("parse", 4, this::parse)
+ *           .stage("enrich", 16, 5000, Pipeline.ErrorPolicy.SKIP, this::enrich)
+ *           .sink(dao::save);
+ * </pre>
+ *
+ * <p>
+ * A function returning <code>null</code> drops the element. The order of the elements is not kept when a stage
+ * has more than one worker. The {@link #getMetrics()} method gives, for each stage, the number of elements
+ * processed, the time spent in the function and the time waiting for the input or for the output: the
+ * bottleneck is the stage whose workers are busy while the others are waiting.
+ * </p>
+ *
+ * @param <T> the type of the elements at the end of the pipeline.
+ */
+public class Pipeline<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(Pipeline.class);
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * What to do when the function of a stage throws an exception.
+     */
+    public enum ErrorPolicy {
+        /**
+         * Stop the pipeline, the failure being thrown to the consumer as a {@link PowerStream.PowerStreamException}.
+         */
+        FAIL,
+
+        /**
+         * Log the failure and drop the element.
+         */
+        SKIP
+    }
+
+    /**
+     * The metrics of a stage. The times are the sum of the times of all the workers.
+     */
+    public static class StageMetrics {
+        private final String name;
+        private final int workers;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder busyTime = new LongAdder();
+        private final LongAdder inputWaitTime = new LongAdder();
+        private final LongAdder outputWaitTime = new LongAdder();
+        private volatile PowerStream<?> input;
+
+        StageMetrics(String name, int workers) {
+            this.name = name;
+            this.workers = workers;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        /**
+         * The number of elements processed (including the errors).
+         *
+         * @return the number of elements.
+         */
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * The number of elements waiting in the input queue of the stage.
+         *
+         * @return the number of elements.
+         */
+        public int getQueueSize() {
+            PowerStream<?> stream = input;
+            return stream == null ? 0 : stream.getQueueSize();
+        }
+
+        /**
+         * The time spent in the function of the stage.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getBusyTime() {
+            return TimeUnit.NANOSECONDS.toMillis(busyTime.sum());
+        }
+
+        /**
+         * The time spent waiting for elements: the previous stage is too slow.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getInputWaitTime() {
+            return TimeUnit.NANOSECONDS.toMillis(inputWaitTime.sum());
+        }
+
+        /**
+         * The time spent waiting to push the results: the next stage is too slow.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getOutputWaitTime() {
+            return TimeUnit.NANOSECONDS.toMillis(outputWaitTime.sum());
+        }
+
+        @Override
+        public String toString() {
+            return name + "[workers=" + workers + ", processed=" + getProcessed() + ", errors=" + getErrors()
+                    + ", queued=" + getQueueSize() + ", busy=" + getBusyTime() + "ms, input wait=" + getInputWaitTime()
+                    + "ms, output wait=" + getOutputWaitTime() + "ms]";
+        }
+    }
+
+    /**
+     * The definition of a stage.
+     */
+    private static class Stage {
+        private final StageMetrics metrics;
+        private final int capacity;
+        private final ErrorPolicy errorPolicy;
+        private final Function<Object, Object> function;
+
+        Stage(String name, int workers, int capacity, ErrorPolicy errorPolicy, Function<Object, Object> function) {
+            this.metrics = new StageMetrics(name, workers);
+            this.capacity = capacity;
+            this.errorPolicy = errorPolicy;
+            this.function = function;
+        }
+
+        /**
+         * The loop of a worker: the upstream is shared by all the workers of the stage.
+         *
+         * @param upstream the input of the stage.
+         * @param lock the lock shared by the workers to read the upstream (not the upstream itself:
+         * its monitor is taken by its producers when they fail).
+         * @param pusher the output of the stage.
+         */
+        void work(PowerStream<Object> upstream, Object lock, PowerStream.Pusher<Object> pusher) {
+            while (true) {
+                Object value;
+                long started = System.nanoTime();
+                try {
+                    synchronized (lock) {
+                        if (!upstream.hasNext()) {
+                            break;
+                        }
+                        value = upstream.next();
+                    }
+                } catch (PowerStream.PowerStreamException ex) {
+                    // Propagate the failure of the upstream as is: not wrapped again by each stage.
+                    pusher.throwException(ex.getMessage(), ex.getCause() == null ? ex : ex.getCause());
+                    return;
+                }
+                long received = System.nanoTime();
+                metrics.inputWaitTime.add(received - started);
+                Object result;
+                try {
+                    result = function.apply(value);
+                } catch (RuntimeException ex) {
+                    metrics.errors.increment();
+                    if (errorPolicy == ErrorPolicy.FAIL) {
+                        pusher.throwException("Stage " + metrics.name + " failed", ex);
+                    }
+                    LOG.warn("Stage {}: element {} skipped ({})", metrics.name, value, ex.toString());
+                    continue;
+                } finally {
+                    metrics.processed.increment();
+                    metrics.busyTime.add(System.nanoTime() - received);
+                }
+                if (result != null) {
+                    long computed = System.nanoTime();
+                    pusher.put(result);
+                    metrics.outputWaitTime.add(System.nanoTime() - computed);
+                }
+            }
+        }
+    }
+
+    private final Consumer<PowerStream.Pusher<Object>> source;
+    private final int sourceCapacity;
+    private final List<Stage> stages = new ArrayList<>();
+
+    private Pipeline(Consumer<PowerStream.Pusher<Object>> source, int sourceCapacity) {
+        this.source = source;
+        this.sourceCapacity = sourceCapacity;
+    }
+
+    /**
+     * Create a pipeline. The producer is run in its own thread.
+     *
+     * @param producer the producer.
+     * @param <T> the type of the elements produced.
+     * @return the pipeline.
+     */
+    public static <T> Pipeline<T> from(Consumer<PowerStream.Pusher<T>> producer) {
+        return from(producer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a pipeline.
+     *
+     * @param producer the producer.
+     * @param capacity the capacity of the queue of the producer.
+     * @param <T> the type of the elements produced.
+     * @return the pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Pipeline<T> from(Consumer<PowerStream.Pusher<T>> producer, int capacity) {
+        Consumer<?> source = producer;
+        return new Pipeline<>((Consumer<PowerStream.Pusher<Object>>) source, capacity);
+    }
+
+    /**
+     * Add a stage with the default capacity, the pipeline failing if the function fails.
+     *
+     * @param name the name of the stage.
+     * @param workers the number of workers.
+     * @param function the function to apply.
+     * @param <R> the type of the result.
+     * @return the pipeline.
+     */
+    public <R> Pipeline<R> stage(String name, int workers, Function<T, R> function) {
+        return stage(name, workers, DEFAULT_CAPACITY, ErrorPolicy.FAIL, function);
+    }
+
+    /**
+     * Add a stage.
+     *
+     * @param name the name of the stage.
+     * @param workers the number of workers.
+     * @param capacity the capacity of the output queue of the stage.
+     * @param errorPolicy what to do when the function fails.
+     * @param function the function to apply.
+     * @param <R> the type of the result.
+     * @return the pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Pipeline<R> stage(String name, int workers, int capacity, ErrorPolicy errorPolicy, Function<T, R> function) {
+        Assert.isTrue(workers > 0, "The number of workers must be strictly positive.");
+        Assert.isTrue(capacity > 0, "The capacity must be strictly positive.");
+        Assert.notNull(errorPolicy, "errorPolicy");
+        Function<?, ?> f = function;
+        stages.add(new Stage(name, workers, capacity, errorPolicy, (Function<Object, Object>) f));
+        return (Pipeline<R>) this;
+    }
+
+    /**
+     * The metrics of the stages (in the order of the stages).
+     *
+     * @return the metrics.
+     */
+    public List<StageMetrics> getMetrics() {
+        List<StageMetrics> metrics = new ArrayList<>();
+        stages.forEach(s -> metrics.add(s.metrics));
+        return metrics;
+    }
+
+    /**
+     * Start the pipeline and get the stream of the results. The stream must be closed if not
+     * read until its end: all the stages are stopped.
+     *
+     * @return the stream.
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<T> stream() {
+        List<PowerStream<Object>> streams = new ArrayList<>();
+        PowerStream<Object> current = PowerStream.builder().capacity(sourceCapacity)
+                .open(Collections.singletonList(source), 1);
+        streams.add(current);
+        for (Stage stage : stages) {
+            PowerStream<Object> upstream = current;
+            stage.metrics.input = upstream;
+            Object lock = new Object();
+            Consumer<PowerStream.Pusher<Object>> worker = p -> stage.work(upstream, lock, p);
+            current = PowerStream.builder().capacity(stage.capacity)
+                    .open(Collections.nCopies(stage.metrics.workers, worker), stage.metrics.workers);
+            streams.add(current);
+        }
+        Iterator<Object> last = current;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize((Iterator<T>) last, Spliterator.ORDERED), false)
+                .onClose(() -> streams.forEach(PowerStream::close));
+    }
+
+    /**
+     * Run the pipeline until its end, the results being sent to the sink (in the current thread).
+     *
+     * @param sink the sink.
+     */
+    public void sink(Consumer<T> sink) {
+        try (Stream<T> stream = stream()) {
+            stream.forEach(sink);
+        }
+        if (LOG.isDebugEnabled()) {
+            getMetrics().forEach(m -> LOG.debug("{}", m));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.oxande.commons.oxutils;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a {@link PowerStream} which can be split for parallel streams.
+ * <p>
+ * The default spliterator of an iterator splits by batches growing of 1024 elements each time,
+ * which is a bad idea for a source which blocks: the thread splitting waits longer and longer
+ * before the first batch is processed. This spliterator always splits by batches of the same size,
+ * each batch being taken from the queue and processed by another thread of the pool while the
+ * splitting continues.
+ * </p>
+ *
+ * @param <T> the type of the elements.
+ */
+final class PowerSpliterator<T> implements Spliterator<T> {
+    private final Iterator<T> iterator;
+    private final int batchSize;
+    private final int characteristics;
+
+    /**
+     * Create the spliterator.
+     *
+     * @param iterator the iterator (usually a {@link PowerStream}).
+     * @param batchSize the number of elements in each split.
+     * @param ordered true if the order of the elements must be kept.
+     */
+    PowerSpliterator(Iterator<T> iterator, int batchSize, boolean ordered) {
+        Assert.isTrue(batchSize > 0, "The batch size must be strictly positive.");
+        this.iterator = iterator;
+        this.batchSize = batchSize;
+        this.characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (iterator.hasNext()) {
+            action.accept(iterator.next());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        iterator.forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        Object[] batch = new Object[batchSize];
+        int n = 0;
+        while (n < batchSize && iterator.hasNext()) {
+            batch[n++] = iterator.next();
+        }
+        if (n == 0) {
+            return null;
+        }
+        return Spliterators.spliterator(batch, 0, n, characteristics);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return characteristics;
+    }
+}
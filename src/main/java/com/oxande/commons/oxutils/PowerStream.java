@@ -1,12 +1,25 @@
 package com.oxande.commons.oxutils;
 
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import java.io.File;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -43,51 +56,496 @@ import java.util.stream.StreamSupport;
  * </p>
  *
  * <p>
+ * When the data comes from several independent sources (like the 25 filters above), each source can be
+ * given to its own producer with {@link #fanIn(List, int, int)}. The producers push concurrently into the
+ * same bounded queue and the stream ends when the last producer has finished:
+ * </p>
+ *
+ * <pre>
+ *     List&lt;Consumer&lt;Pusher&lt;Element&gt;&gt;&gt; producers = new ArrayList&lt;&gt;();
+ *     for (String filter : Arrays.asList(userFilter)) {
+ *         producers.add(p -&gt; p.putList(getDao().getAllUsersWithInactiveFrom(filter, null, 10000)));
+ *     }
+ *     Stream&lt;Element&gt; stream = PowerStream.fanIn(producers, 8, 1000);
+ * </pre>
+ *
+ * <p>
  * The capacity of the underlying queue is not so important but using a capacity less than 100 elements
  * could create some lagging due to the risk of switching contexts (from the main thread to the provider)
  * too frequently. Nevertheless, the unit tests do not show large differences. You should adapt the capacity
  * with the memory needed.
  * </p>
  *
+ * <p>
+ * For very large volumes, the cost of the queue itself (one container and one lock handoff per element)
+ * becomes visible. The {@link Builder#chunked(int, long, TimeUnit)} option makes the pusher fill a local
+ * chunk and transfer the whole chunk at once, the consumer draining it before touching the queue again:
+ * </p>
+ *
+ * <pre>
+ *     Stream&lt;String[]&gt; rows = PowerStream.&lt;String[]&gt;builder()
+ *           .capacity(10_000)
+ *           .chunked(256, 100, TimeUnit.MILLISECONDS)
+ *           .stream(p -&gt; csvReader.forEach(p::put));
+ * </pre>
+ *
+ * <p>
+ * When the size of the elements varies a lot, the number of elements is not a good way to limit the memory.
+ * A weigher (for example the length of the documents) and a budget can be given with
+ * {@link Builder#weigher(ToLongFunction, long)}: the producers are blocked when the weight of the elements in
+ * flight exceeds the budget.
+ * </p>
+ *
+ * <p>
+ * When the consumer is slower than the producer, the producer is blocked and holds its resources (a database
+ * cursor, a connection...) for a long time. With {@link Builder#spill(Codec)}, the elements which do not fit in
+ * the queue are written to temporary files and read back in the same order, then the producer can finish at full
+ * speed.
+ * </p>
+ *
+ * <p>
+ * A paginated source is read by {@link #paged(PageFetcher, int)}, the next pages being fetched
+ * while the current one is consumed.
+ * </p>
+ *
+ * <p>
+ * Several sorted producers are merged into one sorted stream by
+ * {@link #mergeSorted(Comparator, List)}, without loading all the data in memory.
+ * </p>
+ *
+ * <p>
+ * For the sinks working by lists (a JDBC batch insert, a bulk HTTP call...), use
+ * {@link #batches(Stream, int, long, TimeUnit)}.
+ * </p>
+ *
+ * <p>
+ * When the order matters only between the elements having the same key (the events of a given
+ * entity for example), {@link #partitioned(Stream, Function, int, int, Consumer)} processes the
+ * different keys in parallel.
+ * </p>
+ *
+ * <p>
+ * For primitive values (typically the identifiers read from a database), {@link LongPowerStream}
+ * and {@link IntPowerStream} avoid to box each value: the values are transferred by arrays.
+ * </p>
+ *
+ * <p>
+ * A {@link PowerStream} can also be consumed without blocking a thread through a reactive {@link Publisher}
+ * (see {@link #publisher(Consumer)}): the elements are delivered when requested by the subscriber. On
+ * Java 9 and later, <code>org.reactivestreams.FlowAdapters</code> converts it to a
+ * <code>java.util.concurrent.Flow.Publisher</code>. Conversely, {@link #fromPublisher(Publisher, int)}
+ * reads a publisher as a stream.
+ * </p>
+ *
+ * <p>
+ * A stream (or an iterator) which is not consumed until its end must be closed: closing it interrupts the
+ * producers and drains the queue, then the threads are released. The simplest way is to use a
+ * try-with-resources block:
+ * </p>
+ *
+ * <pre>
+ *     try (Stream&lt;Element&gt; stream = PowerStream.stream(p -&gt; ...)) {
+ *         Optional&lt;Element&gt; first = stream.filter(...).findFirst();
+ *     }
+ * </pre>
+ *
+ * <p>
+ * A producer blocked for a long time (because the consumer does not read the stream anymore) is logged
+ * as a warning, see {@link Builder#stallThreshold(long, TimeUnit)}.
+ * </p>
+ *
+ * <p>
+ * The producers run in a shared pool of daemon threads (virtual threads on Java 21 and later). Another
+ * {@link Executor} or {@link ThreadFactory} can be provided, see {@link Builder#executor(Executor)}.
+ * </p>
+ *
+ * <p>
+ * The streams are sequential by default. For CPU-heavy transformations, {@link Builder#parallel(int, boolean)}
+ * provides a parallel stream taking batches of elements from the queue and dispatching them to the threads of
+ * the fork-join pool, while the producer does the I/O.
+ * </p>
+ *
+ * <p>
+ * When only one thread produces the elements, the queue can be replaced by a lock-free ring buffer with
+ * {@link Builder#queue(QueueStrategy)} and {@link QueueStrategy#ringBuffer(WaitStrategy)}.
+ * </p>
+ *
  * @param <T> the type of elements in the stream.
  */
-public class PowerStream<T> implements Iterator<T>, Runnable {
+public class PowerStream<T> implements Iterator<T>, Runnable, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(PowerStream.class);
+    private static final long FOREVER = -1L;
 
     /**
      * To avoid locking, we need to add of sort of "EOF" at the end of the list, this
      * is why we use a very basic container for the value. Using {@link DataContainer#get()}
      * provides the real value or null when we reached the end of the queue (see
      * {@link DataContainer#isEndOfStream()}).
+     * <p>
+     * When the stream is chunked, the container stores a chunk of values instead of a
+     * single one (see {@link DataContainer#get(int)}). When a producer fails, the end of
+     * the stream carries the failure (see {@link DataContainer#getFailure()}).
+     * </p>
      *
      * @param <U> the type to store.
      */
     private static class DataContainer<U> implements Supplier<U> {
         private final U value;
+        private final Object[] chunk;
+        private final int size;
+        private final Throwable failure;
+        /**
+         * The weight of the values (only computed when a weigher is used).
+         */
+        private long weight = 0L;
 
         DataContainer(U value) {
             this.value = value;
+            this.chunk = null;
+            this.size = (value == null ? 0 : 1);
+            this.failure = null;
+        }
+
+        DataContainer(Object[] chunk, int size) {
+            this.value = null;
+            this.chunk = chunk;
+            this.size = size;
+            this.failure = null;
+        }
+
+        /**
+         * Create the end of the stream because of a failure (the "poison pill").
+         *
+         * @param failure the cause of the failure.
+         */
+        DataContainer(Throwable failure) {
+            this.value = null;
+            this.chunk = null;
+            this.size = 0;
+            this.failure = failure;
         }
 
         public U get() {
             return value;
         }
 
+        /**
+         * Get the value at the specified position.
+         *
+         * @param index the index (always 0 for a single value).
+         * @return the value.
+         */
+        @SuppressWarnings("unchecked")
+        U get(int index) {
+            return chunk == null ? value : (U) chunk[index];
+        }
+
+        /**
+         * The number of values stored in the container.
+         *
+         * @return the number of values.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * The failure of the producer when the end of the stream has been reached because
+         * of a failure.
+         *
+         * @return the failure or null.
+         */
+        Throwable getFailure() {
+            return failure;
+        }
+
         /**
          * If the data stored is null, then it is the end of the stream.
          *
          * @return true if the end reached.
          */
         public boolean isEndOfStream() {
-            return value == null;
+            return value == null && chunk == null;
         }
     }
 
-    private final LinkedBlockingQueue<DataContainer<T>> queue;
-    private Throwable exception = null;
-    private String exceptionMessage = null;
-    private final Consumer<Pusher<T>> consumer;
+    /**
+     * Notified of the activity of the stream. This is used by the adapters (as the reactive
+     * publisher) which do not block.
+     */
+    interface Listener {
+        /**
+         * Called by a producer thread after a push (including the end of the stream).
+         */
+        void pushed();
+
+        /**
+         * Called by the consumer when elements are taken from the queue.
+         *
+         * @param count the number of elements taken.
+         */
+        void taken(int count);
+    }
+
+    /**
+     * The builder to configure a {@link PowerStream}. The static methods of {@link PowerStream} are
+     * shortcuts to the builder with the default values.
+     *
+     * @param <R> the type of elements in the stream.
+     */
+    public static class Builder<R> {
+        private int capacity = 1000;
+        private int chunkSize = 1;
+        private long maxLinger = Long.MAX_VALUE;
+        private QueueStrategy queueStrategy = QueueStrategy.LINKED;
+        private long stallThreshold = TimeUnit.MINUTES.toNanos(1);
+        private Executor executor = PowerStreamExecutor.defaultExecutor();
+        private int batchSize = 0;
+        private boolean ordered = true;
+        private boolean capacitySet = false;
+        private ToLongFunction<? super R> weigher = null;
+        private long maxWeight;
+        private Codec<R> spillCodec = null;
+        private int spillSegmentSize;
+        private File spillDirectory;
+
+        private Builder() {
+        }
+
+        /**
+         * Spill the elements to the disk when the queue is full, the producer being never blocked.
+         * The files are created in the temporary directory with segments of 16 MB.
+         *
+         * @param codec the codec to write and read the elements.
+         * @return the builder.
+         * @see #spill(Codec, int, File)
+         */
+        public Builder<R> spill(Codec<R> codec) {
+            return spill(codec, 16 * 1024 * 1024, null);
+        }
+
+        /**
+         * Spill the elements to the disk when the queue is full, the producer being never blocked.
+         * The elements are written in memory-mapped temporary files and read back in the order they
+         * have been pushed. Each file is deleted once read; all of them are deleted when the stream
+         * is closed. This option can not be combined with a weigher.
+         *
+         * @param codec the codec to write and read the elements.
+         * @param segmentSize the size of each file.
+         * @param directory the directory of the files (null for the temporary directory).
+         * @return the builder.
+         */
+        public Builder<R> spill(Codec<R> codec, int segmentSize, File directory) {
+            Assert.notNull(codec, "The codec is mandatory.");
+            this.spillCodec = codec;
+            this.spillSegmentSize = segmentSize;
+            this.spillDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Limit the elements in flight by their weight instead of their number. The producers
+         * are blocked when the weight of the elements not yet read by the consumer exceeds the
+         * budget. When a weigher is given, the number of elements is not limited unless the
+         * capacity is set explicitly. The capacity is mandatory with the preallocated queues
+         * ({@link QueueStrategy#ARRAY} and the ring buffer): the stream can not be created otherwise.
+         *
+         * @param weigher the function computing the weight of an element (typically its size in bytes).
+         * @param maxWeight the maximum weight of the elements in flight.
+         * @return the builder.
+         */
+        public Builder<R> weigher(ToLongFunction<? super R> weigher, long maxWeight) {
+            Assert.notNull(weigher, "The weigher is mandatory.");
+            Assert.isTrue(maxWeight > 0, "The maximum weight must be strictly positive.");
+            this.weigher = weigher;
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * Make the stream parallel. The elements are taken from the queue by batches and each batch
+         * is processed by a thread of the fork-join pool running the stream. This is the common pool,
+         * unless the terminal operation is run inside another pool:
+         *
+         * <pre>
+         *     ForkJoinPool pool = new ForkJoinPool(8);
+         *     long count = pool.submit(() -&gt; stream.map(this::parse).count()).get();
+         * </pre>
+         *
+         * @param batchSize the number of elements sent to a thread at once.
+         * @param ordered false to remove the {@link Spliterator#ORDERED} characteristic, then the
+         *                operations as {@link Stream#findFirst()} or {@link Stream#limit(long)} do
+         *                not have to keep the order.
+         * @return the builder.
+         */
+        public Builder<R> parallel(int batchSize, boolean ordered) {
+            Assert.isTrue(batchSize > 0, "The batch size must be strictly positive.");
+            this.batchSize = batchSize;
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * The executor running the producers. By default, a shared pool of daemon threads is
+         * used (virtual threads on Java 21 and later). Note each producer holds a thread of the
+         * executor until its end: an executor with a bounded number of threads can delay the
+         * start of the producers.
+         *
+         * @param executor the executor.
+         * @return the builder.
+         */
+        public Builder<R> executor(Executor executor) {
+            Assert.notNull(executor, "The executor is mandatory.");
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Create a new thread with the factory for each producer.
+         *
+         * @param threadFactory the thread factory.
+         * @return the builder.
+         */
+        public Builder<R> threadFactory(ThreadFactory threadFactory) {
+            Assert.notNull(threadFactory, "The thread factory is mandatory.");
+            return executor(r -> threadFactory.newThread(r).start());
+        }
+
+        /**
+         * The time after which a producer blocked by a full queue is logged as a warning
+         * (one minute by default).
+         *
+         * @param threshold the threshold
+         * @param unit the unit of the threshold.
+         * @return the builder.
+         */
+        public Builder<R> stallThreshold(long threshold, TimeUnit unit) {
+            Assert.isTrue(threshold > 0, "The threshold must be strictly positive.");
+            this.stallThreshold = unit.toNanos(threshold);
+            return this;
+        }
+
+        /**
+         * The strategy to create the queue ({@link QueueStrategy#LINKED} by default).
+         *
+         * @param queueStrategy the strategy.
+         * @return the builder.
+         */
+        public Builder<R> queue(QueueStrategy queueStrategy) {
+            Assert.notNull(queueStrategy, "The queue strategy is mandatory.");
+            this.queueStrategy = queueStrategy;
+            return this;
+        }
+
+        /**
+         * The maximum number of elements waiting in the queue (1000 by default).
+         *
+         * @param capacity the capacity.
+         * @return the builder.
+         */
+        public Builder<R> capacity(int capacity) {
+            Assert.isTrue(capacity > 0, "The capacity must be strictly positive.");
+            this.capacity = capacity;
+            this.capacitySet = true;
+            return this;
+        }
+
+        /**
+         * Transfer the elements by chunks. The pusher stores the elements locally and pushes the
+         * chunk once full or when the first element of the chunk has waited more than the linger
+         * time. The linger time is checked when an element is pushed: a producer waiting for its
+         * source for a long time should call {@link Pusher#flush()} before.
+         *
+         * @param chunkSize the number of elements of a chunk.
+         * @param maxLinger the maximum time an element waits in the chunk.
+         * @param unit the unit of the linger time.
+         * @return the builder.
+         */
+        public Builder<R> chunked(int chunkSize, long maxLinger, TimeUnit unit) {
+            Assert.isTrue(chunkSize > 0, "The chunk size must be strictly positive.");
+            Assert.isTrue(maxLinger >= 0, "The linger time can not be negative.");
+            this.chunkSize = chunkSize;
+            this.maxLinger = unit.toNanos(maxLinger);
+            return this;
+        }
+
+        /**
+         * Create the iterator and starts the producer. The iterator must be closed if not
+         * read until its end.
+         *
+         * @param producer the producer.
+         * @return an iterator ready to use.
+         */
+        public PowerStream<R> iterator(Consumer<Pusher<R>> producer) {
+            return new PowerStream<>(this, Collections.singletonList(producer), 1);
+        }
+
+        /**
+         * Create the stream and starts the producer.
+         *
+         * @param producer the producer.
+         * @return a stream ready to use.
+         */
+        public Stream<R> stream(Consumer<Pusher<R>> producer) {
+            return asStream(iterator(producer), this);
+        }
+
+        /**
+         * Create a reactive publisher. The producer is started for each subscription.
+         *
+         * @param producer the producer.
+         * @return the publisher.
+         * @see PowerStream#publisher(Consumer)
+         */
+        public Publisher<R> publisher(Consumer<Pusher<R>> producer) {
+            return new PowerStreamPublisher<>(() -> iterator(producer));
+        }
+
+        /**
+         * Create the stream and starts the producers.
+         *
+         * @param producers the producers (each one is run once).
+         * @param parallelism the maximum number of producers running at the same time.
+         * @return a stream ready to use.
+         * @see PowerStream#fanIn(List, int, int)
+         */
+        public Stream<R> fanIn(List<Consumer<Pusher<R>>> producers, int parallelism) {
+            return asStream(open(producers, parallelism), this);
+        }
+
+        /**
+         * Create the iterator and starts the producers.
+         *
+         * @param producers the producers (each one is run once).
+         * @param parallelism the maximum number of producers running at the same time.
+         * @return an iterator ready to use.
+         */
+        PowerStream<R> open(List<Consumer<Pusher<R>>> producers, int parallelism) {
+            return new PowerStream<>(this, producers, parallelism);
+        }
+    }
+
+    private final BlockingQueue<DataContainer<T>> queue;
+    private final int chunkSize;
+    private final long maxLinger;
+    private final long stallThreshold;
+    private final ToLongFunction<? super T> weigher;
+    private final WeightBudget budget;
+    private final SpillBuffer<T> spill;
+    private volatile Listener listener = null;
+    private volatile Throwable exception = null;
+    private volatile String exceptionMessage = null;
+    private volatile boolean closed = false;
+    /**
+     * The failure received by the consumer (the stream is closed once received).
+     */
+    private Throwable failed = null;
+    private final List<Pusher<T>> pushers = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Pusher<T>>> producers;
+    private final AtomicInteger nextProducer = new AtomicInteger();
+    private final AtomicInteger runningProducers;
     private DataContainer<T> nextElement = null;
+    private int position = 0;
 
     @SuppressWarnings("serial")
     public static class PowerStreamException extends RuntimeException {
@@ -107,9 +565,37 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
     public static class Pusher<T> {
 
         private final PowerStream<T> powerStream;
+        private final Thread thread;
+        private Object[] chunk = null;
+        private int count = 0;
+        private long chunkWeight = 0L;
+        private long firstPushedAt;
+        private volatile long blockedSince = 0L;
+        private long reportedAt;
+        private boolean running = true;
 
         private Pusher(PowerStream<T> powerStream) {
             this.powerStream = powerStream;
+            this.thread = Thread.currentThread();
+        }
+
+        /**
+         * Interrupt the thread of the producer, only if the producer is still running: once
+         * finished, the thread can run the producer of another stream.
+         */
+        synchronized void interrupt() {
+            if (running) {
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Called by the thread of the producer when it has finished. The interruption is cleared,
+         * the thread being given back to the executor.
+         */
+        synchronized void finished() {
+            running = false;
+            Thread.interrupted();
         }
 
         /**
@@ -119,11 +605,107 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
          */
         public void put(T object) {
             Assert.notNull(object, "You are not allowed to put null objects in the stream.");
+            long weight = (powerStream.weigher == null ? 0L : powerStream.weigher.applyAsLong(object));
+            if (powerStream.chunkSize == 1) {
+                DataContainer<T> container = new DataContainer<>(object);
+                container.weight = weight;
+                transfer(container);
+                return;
+            }
+            if (chunk == null) {
+                chunk = new Object[powerStream.chunkSize];
+            }
+            chunk[count++] = object;
+            chunkWeight += weight;
+            if (count == 1 && powerStream.maxLinger != Long.MAX_VALUE) {
+                firstPushedAt = System.nanoTime();
+            }
+            if (count == chunk.length
+                    || (powerStream.maxLinger != Long.MAX_VALUE && System.nanoTime() - firstPushedAt >= powerStream.maxLinger)) {
+                flush();
+            }
+        }
+
+        /**
+         * Push the elements waiting in the local chunk. This method does nothing when the stream
+         * is not chunked. It is called automatically when the producer ends.
+         */
+        public void flush() {
+            if (count > 0) {
+                DataContainer<T> container = new DataContainer<>(chunk, count);
+                container.weight = chunkWeight;
+                // The consumer owns the chunk now.
+                chunk = null;
+                count = 0;
+                chunkWeight = 0L;
+                transfer(container);
+            }
+        }
+
+        private void transfer(DataContainer<T> container) {
             try {
-                powerStream.queue.put(new DataContainer<T>(object));
+                if (powerStream.closed) {
+                    throw new CancellationException("The stream has been closed.");
+                }
+                if (powerStream.spill != null) {
+                    powerStream.offerOrSpill(container);
+                    powerStream.notifyPushed();
+                    return;
+                }
+                WeightBudget budget = powerStream.budget;
+                if (budget != null && !budget.tryAcquire(container.weight)) {
+                    // Too many bytes in flight: wait the consumer releases some.
+                    blockedSince = System.nanoTime();
+                    reportedAt = blockedSince;
+                    try {
+                        while (!budget.acquire(container.weight, 100, TimeUnit.MILLISECONDS)) {
+                            if (powerStream.closed) {
+                                throw new CancellationException("The stream has been closed.");
+                            }
+                        }
+                    } finally {
+                        blockedSince = 0L;
+                    }
+                }
+                if (!powerStream.queue.offer(container)) {
+                    // The queue is full: wait, checking regularly the stream is not closed.
+                    blockedSince = System.nanoTime();
+                    reportedAt = blockedSince;
+                    try {
+                        while (!powerStream.queue.offer(container, 100, TimeUnit.MILLISECONDS)) {
+                            if (powerStream.closed) {
+                                throw new CancellationException("The stream has been closed.");
+                            }
+                        }
+                    } finally {
+                        blockedSince = 0L;
+                    }
+                }
+                powerStream.notifyPushed();
             } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                throwException("Process has been interrupted while adding data", ex);
+                interrupted("Process has been interrupted while adding data", ex);
+            }
+        }
+
+        private void interrupted(String message, InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (powerStream.closed) {
+                throw new CancellationException("The stream has been closed.");
+            }
+            throwException(message, ex);
+        }
+
+        /**
+         * Log a warning if the pusher is blocked for too long. Called by the {@link PowerStreamWatchdog}.
+         *
+         * @param now the current time (in nanoseconds).
+         */
+        void checkStalled(long now) {
+            long since = blockedSince;
+            if (since != 0L && now - reportedAt >= powerStream.stallThreshold) {
+                reportedAt = now;
+                LOG.warn("Producer {} blocked for {} ms: the stream is not consumed ({} elements waiting).",
+                        thread, TimeUnit.NANOSECONDS.toMillis(now - since), powerStream.queue.size());
             }
         }
 
@@ -137,13 +719,12 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
          * @param duration the sleep duration in milliseconds
          */
         public void sleep(long duration) {
+            flush();
             try {
                 LOG.debug("{} waiting for {} ms...", Thread.currentThread(), duration);
                 Thread.sleep(duration);
             } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                // throw new PowerStreamException("The processing has been interrupted", ex);
-                throwException("Process has been interrupted", ex);
+                interrupted("Process has been interrupted", ex);
             }
         }
 
@@ -158,7 +739,7 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
         }
 
         public void throwException(Throwable t) {
-            this.powerStream.exception = t;
+            this.powerStream.fail(t);
             throw new PowerStreamException(this.powerStream.exceptionMessage, t);
         }
 
@@ -169,31 +750,340 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
     }
 
     /**
-     * Create the stream and starts the consumer.
+     * Create the stream and starts the producers. Each thread created takes the next producer
+     * not yet started until all of them have been run.
      *
-     * @param consumer the consumer to generate data
-     * @param capacity the maximum capacity to block when necessary.
+     * @param builder the configuration of the stream.
+     * @param producers the producers to generate data
+     * @param parallelism the number of threads running the producers.
      */
-    private PowerStream(Consumer<Pusher<T>> consumer, int capacity) {
-        this.queue = new LinkedBlockingQueue<>(capacity);
-        this.consumer = consumer;
-        Thread t = new Thread(this);
-
-        LOG.info("Thread {} created...", t);
-        t.start();
+    private PowerStream(Builder<T> builder, List<Consumer<Pusher<T>>> producers, int parallelism) {
+        Assert.notEmpty(producers, "At least one producer is expected.");
+        Assert.isTrue(parallelism > 0, "The parallelism must be strictly positive.");
+        Assert.isTrue(parallelism == 1 || !builder.queueStrategy.isSingleProducer(),
+                "The queue strategy supports only one producer thread.");
+        // A preallocated queue can not be unbounded.
+        Assert.isTrue(builder.weigher == null || builder.capacitySet || builder.queueStrategy == QueueStrategy.LINKED,
+                "The capacity must be set explicitly when a weigher is used with another queue than QueueStrategy.LINKED.");
+        // The capacity is expressed in elements, not in chunks.
+        int capacity = (builder.weigher != null && !builder.capacitySet ? Integer.MAX_VALUE : builder.capacity);
+        this.queue = builder.queueStrategy.create(Math.max(1, capacity / builder.chunkSize));
+        this.weigher = builder.weigher;
+        this.budget = (builder.weigher == null ? null : new WeightBudget(builder.maxWeight));
+        Assert.isTrue(builder.weigher == null || builder.spillCodec == null, "A weigher can not be used when spilling.");
+        this.spill = (builder.spillCodec == null ? null
+                : new SpillBuffer<>(builder.spillCodec, builder.spillSegmentSize, builder.spillDirectory));
+        this.chunkSize = builder.chunkSize;
+        this.maxLinger = builder.maxLinger;
+        this.stallThreshold = builder.stallThreshold;
+        this.producers = new ArrayList<>(producers);
+        this.runningProducers = new AtomicInteger(this.producers.size());
+        PowerStreamWatchdog.register(this);
+        int nbThreads = Math.min(parallelism, this.producers.size());
+        for (int i = 0; i < nbThreads; i++) {
+            builder.executor.execute(this);
+        }
+        LOG.debug("{} producer(s) started...", nbThreads);
     }
 
-
+    /**
+     * Run the producers not yet started. The end of the stream is pushed by the thread
+     * finishing the last producer. If a producer fails, the end of the stream is pushed
+     * immediately with the failure.
+     */
     @Override
     public final void run() {
-        Pusher<T> pusher = new Pusher<>(this);
-        consumer.accept(pusher);
+        int index;
+        while ((index = nextProducer.getAndIncrement()) < producers.size()) {
+            Pusher<T> pusher = new Pusher<>(this);
+            pushers.add(pusher);
+            try {
+                if (!closed) {
+                    producers.get(index).accept(pusher);
+                    pusher.flush();
+                }
+            } catch (CancellationException ex) {
+                LOG.debug("Producer {} cancelled.", Thread.currentThread());
+            } catch (Throwable ex) {
+                if (!closed) {
+                    Throwable cause = (ex instanceof PowerStreamException && this.exception != null ? this.exception : ex);
+                    fail(cause);
+                    endOfStream(new DataContainer<>(cause));
+                }
+            } finally {
+                pusher.finished();
+                pushers.remove(pusher);
+                if (runningProducers.decrementAndGet() == 0) {
+                    PowerStreamWatchdog.unregister(this);
+                    endOfStream(new DataContainer<T>(null, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the failure of a producer. Only the first failure is kept.
+     *
+     * @param t the failure.
+     */
+    private synchronized void fail(Throwable t) {
+        if (this.exception == null) {
+            this.exception = t;
+        }
+    }
+
+    /**
+     * Push the end of the stream. The consumer can have stopped to read the stream, then we
+     * give up once the stream is closed.
+     *
+     * @param container the end of the stream.
+     */
+    private void endOfStream(DataContainer<T> container) {
+        if (spill != null) {
+            offerOrSpill(container);
+            notifyPushed();
+            return;
+        }
         try {
-            // Push the end of list element
-            this.queue.put(new DataContainer<>(null));
+            while (!closed && !queue.offer(container, 100, TimeUnit.MILLISECONDS)) {
+                LOG.trace("Waiting to push the end of the stream...");
+            }
+            notifyPushed();
         } catch (InterruptedException e) {
-            pusher.throwException(e);
+            Thread.currentThread().interrupt();
+            LOG.debug("Interrupted while pushing the end of the stream.");
+        }
+    }
+
+    /**
+     * Push the container in the queue, or in the spill files if the queue is full or if some
+     * elements are already in the spill files (to keep the order).
+     *
+     * @param container the container to push.
+     */
+    private void offerOrSpill(DataContainer<T> container) {
+        synchronized (spill) {
+            if (closed || (spill.isEmpty() && queue.offer(container))) {
+                return;
+            }
+            if (container.isEndOfStream()) {
+                spill.writeEnd();
+            } else {
+                List<T> values = new ArrayList<>(container.size());
+                for (int i = 0; i < container.size(); i++) {
+                    values.add(container.get(i));
+                }
+                spill.write(values);
+            }
+        }
+    }
+
+    /**
+     * Take the next container. The queue always contains the oldest elements, then the spill
+     * files are read only when the queue is empty.
+     *
+     * @param timeout the maximum time to wait in nanoseconds ({@link #FOREVER} to wait until a
+     *                container is available).
+     * @return the next container, null if none available before the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private DataContainer<T> receive(long timeout) throws InterruptedException {
+        if (spill != null) {
+            synchronized (spill) {
+                DataContainer<T> container = queue.poll();
+                if (container == null && !spill.isEmpty()) {
+                    Object[] values = spill.read();
+                    if (values == null) {
+                        // Nothing more to read: the files can be deleted.
+                        spill.close();
+                        container = (exception == null ? new DataContainer<>(null, 0) : new DataContainer<>(exception));
+                    } else {
+                        container = new DataContainer<>(values, values.length);
+                    }
+                }
+                if (container != null) {
+                    return container;
+                }
+            }
+            // Both are empty: the producer will push the next container in the queue.
+        }
+        if (timeout == FOREVER) {
+            return queue.take();
+        }
+        return timeout > 0 ? queue.poll(timeout, TimeUnit.NANOSECONDS) : queue.poll();
+    }
+
+    /**
+     * Get the next container to read.
+     *
+     * @param timeout the maximum time to wait in nanoseconds (0 to not wait, {@link #FOREVER}
+     *                to wait until a container is available).
+     * @return false if no container available before the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private boolean fetch(long timeout) throws InterruptedException {
+        DataContainer<T> container = receive(timeout);
+        if (container == null) {
+            return false;
+        }
+        this.nextElement = container;
+        this.position = 0;
+        if (budget != null) {
+            budget.release(container.weight);
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.taken(container.size());
         }
+        return true;
+    }
+
+    /**
+     * Check if an element (or the end of the stream) has already been fetched.
+     *
+     * @return true if {@link #hasNext()} will not block.
+     */
+    private boolean isFetched() {
+        return nextElement != null && (position < nextElement.size() || nextElement.isEndOfStream());
+    }
+
+    /**
+     * Get the next element without blocking.
+     *
+     * @return the next element, null if no element is available now or if the end of the
+     * stream is reached (see {@link #isFinished()}).
+     * @throws PowerStreamException if the producer has failed.
+     */
+    T poll() {
+        return poll(0L, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the next element, waiting at most the timeout.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return the next element, null if no element is available before the timeout or if the end
+     * of the stream is reached (see {@link #isFinished()}).
+     * @throws PowerStreamException if the producer has failed.
+     */
+    T poll(long timeout, TimeUnit unit) {
+        try {
+            if (closed || (!isFetched() && !fetch(Math.max(0L, unit.toNanos(timeout))))) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PowerStreamException("Processing interrupted.", e);
+        }
+        return hasNext() ? next() : null;
+    }
+
+    /**
+     * Check the end of the stream has been reached (or the stream closed). This method does
+     * not block.
+     *
+     * @return true if finished.
+     */
+    boolean isFinished() {
+        if (!closed && !isFetched()) {
+            try {
+                fetch(0L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return closed || (nextElement != null && nextElement.isEndOfStream());
+    }
+
+    /**
+     * Wait at most the timeout for the next element (or the end of the stream).
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if {@link #hasNext()} will not block.
+     */
+    boolean await(long timeout, TimeUnit unit) {
+        if (closed || failed != null || isFetched()) {
+            return true;
+        }
+        try {
+            return fetch(Math.max(0L, unit.toNanos(timeout)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PowerStreamException("Processing interrupted.", e);
+        }
+    }
+
+    /**
+     * The failure of the producer when the end of the stream has been reached.
+     *
+     * @return the failure or null.
+     */
+    Throwable getFailure() {
+        if (failed != null) {
+            return failed;
+        }
+        return nextElement == null ? null : nextElement.getFailure();
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private void notifyPushed() {
+        Listener l = listener;
+        if (l != null) {
+            l.pushed();
+        }
+    }
+
+    /**
+     * Check the producers blocked for too long.
+     *
+     * @param now the current time in nanoseconds.
+     */
+    void checkStalled(long now) {
+        pushers.forEach(p -> p.checkStalled(now));
+    }
+
+    /**
+     * Close the stream. The producers still running are interrupted (a {@link CancellationException}
+     * is thrown when they push data) and the queue is drained to release the producers
+     * blocked. This method is called when the stream is closed.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            PowerStreamWatchdog.unregister(this);
+            pushers.forEach(Pusher::interrupt);
+            queue.clear();
+            if (spill != null) {
+                synchronized (spill) {
+                    spill.close();
+                }
+            }
+            nextElement = null;
+        }
+    }
+
+    /**
+     * Check if the stream has been closed.
+     *
+     * @return true if closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The number of elements waiting in the queue (approximate when chunked).
+     *
+     * @return the number of elements.
+     */
+    int getQueueSize() {
+        return queue.size() * chunkSize;
     }
 
     /**
@@ -206,29 +1096,61 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
      * to check if a new element is available then this method can block when
      * requested, whereas the {@link #next()} method will not block.
      * </p>
+     * <p>
+     * When a producer has failed, the elements pushed before the failure are
+     * returned then a {@link PowerStreamException} is thrown.
+     * </p>
      *
      * @return {@code true} if the iteration has more elements
      */
     @Override
     public boolean hasNext() {
-        if (this.exception != null) {
-            String msg = Optional.ofNullable(this.exceptionMessage).orElse("The processing failed");
-            throw new PowerStreamException(msg, this.exception);
+        if (failed != null) {
+            throw failure(failed);
+        }
+        if (closed) {
+            return false;
         }
 
-        if (nextElement != null) {
+        if (isFetched()) {
             // We already have the next element ready.
+            if (nextElement.getFailure() != null) {
+                throw failed(nextElement.getFailure());
+            }
             return !nextElement.isEndOfStream();
         }
 
         try {
-            this.nextElement = this.queue.take();
+            fetch(FOREVER);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new PowerStreamException("Processing interrupted.", e);
         }
+        if (nextElement.getFailure() != null) {
+            throw failed(nextElement.getFailure());
+        }
         return !nextElement.isEndOfStream();
     }
 
+    /**
+     * The failure of a producer has been received: the other producers are cancelled (they
+     * would be blocked forever on a queue no longer read). The failure is thrown again by
+     * the next calls.
+     *
+     * @param cause the failure.
+     * @return the exception to throw.
+     */
+    private PowerStreamException failed(Throwable cause) {
+        failed = cause;
+        close();
+        return failure(cause);
+    }
+
+    private PowerStreamException failure(Throwable cause) {
+        String msg = Optional.ofNullable(this.exceptionMessage).orElse("The processing failed");
+        return new PowerStreamException(msg, cause);
+    }
+
     /**
      * Returns the next element in the iteration.
      *
@@ -240,9 +1162,11 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
-        DataContainer<T> ret = nextElement;
-        nextElement = null; // Reset...
-        return ret.get();
+        T ret = nextElement.get(position);
+        if (++position == nextElement.size()) {
+            nextElement = null; // Reset...
+        }
+        return ret;
     }
 
     /**
@@ -266,8 +1190,7 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
      * @return an iterator ready to use.
      */
     public static <R> Iterator<R> iterator(Consumer<Pusher<R>> consumer, int capacity) {
-        PowerStream<R> powerStream = new PowerStream<>(consumer, capacity);
-        return powerStream;
+        return PowerStream.<R>builder().capacity(capacity).iterator(consumer);
     }
 
     public static <R> Stream<R> stream(Consumer<Pusher<R>> consumer) {
@@ -285,9 +1208,364 @@ public class PowerStream<T> implements Iterator<T>, Runnable {
      * @see #iterator(Consumer, int)
      */
     public static <R> Stream<R> stream(Consumer<Pusher<R>> consumer, int capacity) {
-        return StreamSupport.stream(
-                Spliterators.spliteratorUnknownSize(iterator(consumer, capacity), Spliterator.ORDERED),
-                false);
+        return PowerStream.<R>builder().capacity(capacity).stream(consumer);
+    }
+
+    /**
+     * Retrieve a stream for the consumer provided using a specific queue.
+     *
+     * @param consumer the consumer
+     * @param capacity the capacity of the queue.
+     * @param queueStrategy the strategy to create the queue.
+     * @param <R> the type of objects to get in the iterator.
+     * @return an stream ready to use.
+     * @see QueueStrategy#ringBuffer(WaitStrategy)
+     */
+    public static <R> Stream<R> stream(Consumer<Pusher<R>> consumer, int capacity, QueueStrategy queueStrategy) {
+        return PowerStream.<R>builder().capacity(capacity).queue(queueStrategy).stream(consumer);
+    }
+
+    /**
+     * Retrieve a stream fed by several producers running concurrently. All the producers push
+     * into the same bounded queue, then the memory used is still limited by the capacity. The
+     * end of the stream is reached once the last producer has finished.
+     * <p>
+     * The order of the elements is only kept for a same producer: elements coming from different
+     * producers are interleaved.
+     * </p>
+     *
+     * @param producers the producers (each one is run once).
+     * @param parallelism the maximum number of producers running at the same time.
+     * @param capacity the capacity of the queue.
+     * @param <R> the type of objects to get in the stream.
+     * @return an stream ready to use.
+     */
+    public static <R> Stream<R> fanIn(List<Consumer<Pusher<R>>> producers, int parallelism, int capacity) {
+        return PowerStream.<R>builder().capacity(capacity).fanIn(producers, parallelism);
+    }
+
+    /**
+     * Transform the elements of a stream on several threads, keeping the order of the elements. The
+     * source is read by a dispatcher thread which sends each element to the workers. The results are
+     * pushed in the order of the source: a result computed before the results of the previous elements
+     * waits in a reorder buffer.
+     * <p>
+     * The number of elements being transformed or waiting in the reorder buffer is limited by the window,
+     * then the memory used is bounded even if an element takes a long time to be transformed.
+     * </p>
+     *
+     * @param source the source (closed with the stream returned).
+     * @param function the function to apply (called by the workers).
+     * @param workers the maximum number of transformations running at the same time (on the shared
+     *                executor of the producers).
+     * @param window the maximum number of elements in progress (must be greater or equal to the number of
+     *               workers to use all of them).
+     * @param <T> the type of the source elements.
+     * @param <R> the type of the results.
+     * @return the stream of the results.
+     */
+    public static <T, R> Stream<R> mapParallel(Stream<T> source, Function<T, R> function, int workers, int window) {
+        return mapParallel(source.iterator(), function, workers, window).onClose(source::close);
+    }
+
+    /**
+     * Transform the elements of an iterator on several threads, keeping the order of the elements.
+     *
+     * @param source the source.
+     * @param function the function to apply (called by the workers).
+     * @param workers the maximum number of transformations running at the same time.
+     * @param window the maximum number of elements in progress (being transformed or transformed
+     * but not yet taken by the consumer).
+     * @param <T> the type of the source elements.
+     * @param <R> the type of the results.
+     * @return the stream of the results.
+     * @see #mapParallel(Stream, Function, int, int)
+     */
+    public static <T, R> Stream<R> mapParallel(Iterator<T> source, Function<T, R> function, int workers, int window) {
+        Assert.isTrue(workers > 0, "The number of workers must be strictly positive.");
+        Assert.isTrue(window > 0, "The window must be strictly positive.");
+        // The elements in progress: a permit is released when the consumer takes the result.
+        Semaphore inProgress = new Semaphore(window);
+        return PowerStream.<R>builder().capacity(window).stream(p -> {
+            Executor executor = PowerStreamExecutor.defaultExecutor();
+            Semaphore slots = new Semaphore(workers);
+            // The reorder buffer: the results in the order of the source.
+            Deque<CompletableFuture<R>> pending = new ArrayDeque<>(window);
+            try {
+                while (source.hasNext()) {
+                    T value = source.next();
+                    try {
+                        while (!inProgress.tryAcquire()) {
+                            if (pending.isEmpty()) {
+                                // All the results are in the queue: wait for the consumer.
+                                inProgress.acquire();
+                                break;
+                            }
+                            p.put(result(pending.poll(), p, "The transformation failed"));
+                        }
+                        slots.acquire();
+                    } catch (InterruptedException ex) {
+                        p.interrupted("Interrupted while waiting for a worker", ex);
+                    }
+                    pending.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return function.apply(value);
+                        } finally {
+                            slots.release();
+                        }
+                    }, executor));
+                    while (!pending.isEmpty() && pending.peek().isDone()) {
+                        p.put(result(pending.poll(), p, "The transformation failed"));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    p.put(result(pending.poll(), p, "The transformation failed"));
+                }
+            } finally {
+                pending.forEach(f -> f.cancel(true));
+            }
+        }).peek(r -> inProgress.release());
+    }
+
+    private static <R> R result(CompletableFuture<R> future, Pusher<?> pusher, String message) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            pusher.throwException(message, ex.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Read a paginated source. Instead of fetching a page once the previous one has been
+     * consumed, the pages are fetched in advance: up to <code>lookahead</code> pages at the
+     * same time for an offset-based pagination, the next page while the previous one is consumed
+     * for a cursor-based pagination (see {@link PageFetcher}). The elements are kept in the
+     * order of the pages. The pages are fetched by the shared executor of the producers; a page
+     * still being fetched when the stream is closed is discarded.
+     *
+     * @param fetcher the fetcher of the pages.
+     * @param lookahead the maximum number of pages fetched at the same time.
+     * @param <C> the type of the cursor.
+     * @param <R> the type of the elements.
+     * @return the stream of the elements.
+     */
+    public static <C, R> Stream<R> paged(PageFetcher<C, R> fetcher, int lookahead) {
+        Assert.isTrue(lookahead > 0, "The lookahead must be strictly positive.");
+        return PowerStream.<R>stream(p -> {
+            Executor executor = PowerStreamExecutor.defaultExecutor();
+            Deque<CompletableFuture<Page<C, R>>> pending = new ArrayDeque<>(lookahead);
+            try {
+                C cursor = fetcher.first();
+                boolean known = true; // The cursor of the next page to fetch is known
+                while (true) {
+                    while (known && pending.size() < lookahead) {
+                        C current = cursor;
+                        pending.add(CompletableFuture.supplyAsync(() -> fetcher.fetch(current), executor));
+                        cursor = fetcher.following(current);
+                        known = (cursor != null);
+                    }
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+                    Page<C, R> page = result(pending.poll(), p, "The page can not be fetched");
+                    if (!page.isLast() && !known && pending.isEmpty()) {
+                        // Cursor-based pagination: the page gives the next one, fetched while
+                        // this one is consumed.
+                        C next = page.getNext();
+                        pending.add(CompletableFuture.supplyAsync(() -> fetcher.fetch(next), executor));
+                        cursor = fetcher.following(next);
+                        known = (cursor != null);
+                    }
+                    p.putList(page.getItems());
+                    if (page.isLast()) {
+                        break;
+                    }
+                }
+            } finally {
+                pending.forEach(f -> f.cancel(true));
+            }
+        });
+    }
+
+    /**
+     * Merge sorted producers (for example the exports of several shards) into one sorted stream.
+     * Each producer runs in its own thread and pushes in its own queue; the consumer takes the
+     * smallest of the head elements of the queues (a k-way merge using a heap). Then the memory
+     * used is bounded by the capacity of the queues, whatever the size of the data. The elements
+     * of each producer must be sorted according to the comparator.
+     *
+     * @param comparator the comparator.
+     * @param producers the producers.
+     * @param <R> the type of the elements.
+     * @return the merged stream.
+     */
+    public static <R> Stream<R> mergeSorted(Comparator<? super R> comparator, List<Consumer<Pusher<R>>> producers) {
+        return mergeSorted(comparator, producers, 1000);
+    }
+
+    /**
+     * Merge sorted producers into one sorted stream.
+     *
+     * @param comparator the comparator.
+     * @param producers the producers.
+     * @param capacity the capacity of the queue of each producer.
+     * @param <R> the type of the elements.
+     * @return the merged stream.
+     * @see #mergeSorted(Comparator, List)
+     */
+    public static <R> Stream<R> mergeSorted(Comparator<? super R> comparator, List<Consumer<Pusher<R>>> producers, int capacity) {
+        Assert.notEmpty(producers, "At least one producer is expected.");
+        List<PowerStream<R>> streams = new ArrayList<>(producers.size());
+        producers.forEach(producer -> streams.add(PowerStream.<R>builder().capacity(capacity).iterator(producer)));
+        Iterator<R> iterator = new SortedMergeIterator<>(streams, comparator);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> streams.forEach(PowerStream::close));
+    }
+
+    /**
+     * Group the elements of a stream in batches, typically for a bulk insert. A batch is emitted when
+     * it contains <code>maxSize</code> elements or when <code>maxLinger</code> has elapsed since
+     * its first element has been received, whichever comes first. Then a slow source does not hold
+     * the elements forever, while a burst gives full batches.
+     * <p>
+     * The source is read by another thread. If the source fails, the batch in progress is emitted
+     * before the failure is thrown.
+     * </p>
+     *
+     * @param source the source.
+     * @param maxSize the maximum number of elements of a batch.
+     * @param maxLinger the maximum time to wait for the batch to be full.
+     * @param unit the unit of <code>maxLinger</code>.
+     * @param <T> the type of the elements.
+     * @return the stream of the batches (never empty).
+     */
+    public static <T> Stream<List<T>> batches(Stream<T> source, int maxSize, long maxLinger, TimeUnit unit) {
+        Assert.isTrue(maxSize > 0, "The size of a batch must be strictly positive.");
+        long linger = unit.toNanos(maxLinger);
+        PowerStream<T> input = PowerStream.<T>builder().capacity(maxSize).iterator(p -> source.forEach(p::put));
+        Iterator<List<T>> iterator = new Iterator<List<T>>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return input.hasNext();
+                } catch (PowerStreamException ex) {
+                    // Do not wrap again the failure of a source which is itself a power stream.
+                    throw (ex.getCause() instanceof PowerStreamException ? (PowerStreamException) ex.getCause() : ex);
+                }
+            }
+
+            @Override
+            public List<T> next() {
+                List<T> batch = new ArrayList<>(Math.min(maxSize, 1024));
+                batch.add(input.next());
+                long deadline = System.nanoTime() + linger;
+                try {
+                    while (batch.size() < maxSize) {
+                        long remaining = deadline - System.nanoTime();
+                        T value = (remaining > 0 ? input.poll(remaining, TimeUnit.NANOSECONDS) : null);
+                        if (value == null) {
+                            break;
+                        }
+                        batch.add(value);
+                    }
+                } catch (PowerStreamException ex) {
+                    // Thrown again by the next call to hasNext()
+                }
+                return batch;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    input.close();
+                    source.close();
+                });
+    }
+
+    /**
+     * Consume the elements of a stream on several threads, the elements having the same key being
+     * processed in the order of the stream (see {@link PartitionedConsumer}). The stream is closed
+     * once read.
+     *
+     * @param source the source.
+     * @param keyExtractor the key of an element.
+     * @param partitions the number of partitions (and of worker threads).
+     * @param capacity the capacity of the queue of each partition.
+     * @param action the action to apply on each element (called by the workers).
+     * @param <T> the type of the elements.
+     * @return the consumer, to wait for its end.
+     */
+    public static <T> PartitionedConsumer<T> partitioned(Stream<T> source, Function<? super T, ?> keyExtractor,
+                                                         int partitions, int capacity, Consumer<? super T> action) {
+        return new PartitionedConsumer<>(source.iterator(), source::close, keyExtractor, partitions, capacity,
+                action, PowerStreamExecutor.defaultExecutor());
+    }
+
+    /**
+     * Consume the elements of an iterator on several threads, the elements having the same key being
+     * processed in the order of the iterator.
+     *
+     * @param source the source.
+     * @param keyExtractor the key of an element.
+     * @param partitions the number of partitions (and of worker threads).
+     * @param capacity the capacity of the queue of each partition.
+     * @param action the action to apply on each element (called by the workers).
+     * @param <T> the type of the elements.
+     * @return the consumer, to wait for its end.
+     * @see #partitioned(Stream, Function, int, int, Consumer)
+     */
+    public static <T> PartitionedConsumer<T> partitioned(Iterator<T> source, Function<? super T, ?> keyExtractor,
+                                                         int partitions, int capacity, Consumer<? super T> action) {
+        return new PartitionedConsumer<>(source, null, keyExtractor, partitions, capacity,
+                action, PowerStreamExecutor.defaultExecutor());
+    }
+
+    /**
+     * Create a reactive publisher. The producer is started for each subscription and the
+     * elements are delivered when requested by the subscriber (by the thread requesting them
+     * or by the producer thread), no thread being blocked waiting for the elements.
+     *
+     * @param producer the producer.
+     * @param <R> the type of objects published.
+     * @return the publisher.
+     */
+    public static <R> Publisher<R> publisher(Consumer<Pusher<R>> producer) {
+        return PowerStream.<R>builder().publisher(producer);
+    }
+
+    /**
+     * Read a reactive publisher as a stream. The elements are requested by batches when read by
+     * the consumer, then at most <code>capacity</code> elements are waiting in the stream. Closing
+     * the stream cancels the subscription.
+     *
+     * @param publisher the publisher.
+     * @param capacity the capacity of the stream.
+     * @param <R> the type of objects to get in the stream.
+     * @return the stream.
+     */
+    public static <R> Stream<R> fromPublisher(Publisher<? extends R> publisher, int capacity) {
+        Builder<R> builder = PowerStream.<R>builder().capacity(capacity);
+        PowerStreamSubscriber<R> subscriber = new PowerStreamSubscriber<>(publisher, capacity);
+        PowerStream<R> stream = builder.iterator(subscriber);
+        stream.setListener(subscriber);
+        return asStream(stream, builder);
+    }
+
+    /**
+     * Create a builder to configure the stream.
+     *
+     * @param <R> the type of objects to get in the stream.
+     * @return a new builder.
+     */
+    public static <R> Builder<R> builder() {
+        return new Builder<>();
+    }
+
+    private static <R> Stream<R> asStream(PowerStream<R> iterator, Builder<R> builder) {
+        Spliterator<R> spliterator = (builder.batchSize > 0
+                ? new PowerSpliterator<>(iterator, builder.batchSize, builder.ordered)
+                : Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED));
+        return StreamSupport.stream(spliterator, builder.batchSize > 0).onClose(iterator::close);
     }
 
 }
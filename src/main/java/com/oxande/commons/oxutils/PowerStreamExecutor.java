@@ -0,0 +1,41 @@
+package com.oxande.commons.oxutils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the default {@link Executor} running the producers of the {@link PowerStream}s.
+ * <p>
+ * This is a shared pool of daemon threads. The pool is not bounded because a producer must
+ * start immediately (the consumer waits for it), but the idle threads are reused, then opening
+ * many streams does not create a thread for each one.
+ * </p>
+ * <p>
+ * On Java 21 and later, this class is replaced by a version using virtual threads (see the
+ * <code>src/main/java21</code> directory of the multi-release JAR).
+ * </p>
+ */
+final class PowerStreamExecutor {
+    private static final AtomicInteger counter = new AtomicInteger();
+    private static final Executor DEFAULT = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "PowerStream-" + counter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private PowerStreamExecutor() {
+    }
+
+    /**
+     * Get the default executor.
+     *
+     * @return the shared executor.
+     */
+    static Executor defaultExecutor() {
+        return DEFAULT;
+    }
+}
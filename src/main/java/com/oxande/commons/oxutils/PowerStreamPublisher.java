@@ -0,0 +1,159 @@
+package com.oxande.commons.oxutils;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A reactive {@link Publisher} over a {@link PowerStream}. Each subscription starts a new stream.
+ * <p>
+ * The elements are delivered only when requested by the subscriber ({@link Subscription#request(long)}),
+ * either by the thread requesting them or by the producer thread pushing them: no thread is blocked waiting
+ * for the elements. When the subscriber does not request elements, the queue becomes full and the producer
+ * is blocked (the usual backpressure of the {@link PowerStream}).
+ * </p>
+ *
+ * @param <T> the type of the elements.
+ */
+final class PowerStreamPublisher<T> implements Publisher<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(PowerStreamPublisher.class);
+
+    private final Supplier<PowerStream<T>> factory;
+
+    PowerStreamPublisher(Supplier<PowerStream<T>> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "The subscriber can not be null.");
+        PowerSubscription<T> subscription = new PowerSubscription<>(factory.get(), subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.stream.setListener(subscription);
+        subscription.drain();
+    }
+
+    /**
+     * The subscription. The signals to the subscriber are serialized by the classic "work in progress"
+     * counter: the thread incrementing the counter from 0 delivers the elements, the other threads only
+     * increment the counter to ask for another loop.
+     *
+     * @param <T> the type of the elements.
+     */
+    static final class PowerSubscription<T> implements Subscription, PowerStream.Listener {
+        private final PowerStream<T> stream;
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        /**
+         * The error to signal to the subscriber (an invalid request), delivered by the drain loop.
+         */
+        private volatile Throwable error = null;
+
+        PowerSubscription(PowerStream<T> stream, Subscriber<? super T> subscriber) {
+            this.stream = stream;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("The number of elements requested must be strictly positive (rule 3.9).");
+                drain();
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                if (current == Long.MAX_VALUE) {
+                    break;
+                }
+                next = current + n;
+                if (next < 0) {
+                    // Saturate: the demand is then unbounded (rule 3.17).
+                    next = Long.MAX_VALUE;
+                }
+            } while (!requested.compareAndSet(current, next));
+            drain();
+        }
+
+        /**
+         * Cancel the subscription. This method can be called by any thread (rule 2.7) while the
+         * stream is read by the drain loop: the stream is closed by the thread owning the loop.
+         */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        @Override
+        public void pushed() {
+            drain();
+        }
+
+        @Override
+        public void taken(int count) {
+            // Nothing to do: the demand is decremented when the elements are delivered.
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long r = requested.get();
+                long delivered = 0L;
+                try {
+                    if (error != null && !cancelled) {
+                        terminate(error);
+                    }
+                    while (delivered != r && !cancelled) {
+                        T value = stream.poll();
+                        if (value == null) {
+                            break;
+                        }
+                        subscriber.onNext(value);
+                        delivered++;
+                    }
+                    if (!cancelled && stream.isFinished()) {
+                        terminate(stream.getFailure());
+                    }
+                } catch (PowerStream.PowerStreamException ex) {
+                    terminate(stream.getFailure() == null ? ex : stream.getFailure());
+                } catch (RuntimeException ex) {
+                    // The subscriber has thrown an exception (rule 2.13 violated).
+                    LOG.warn("The subscriber {} failed: {}", subscriber, ex.toString());
+                    cancelled = true;
+                }
+                if (cancelled) {
+                    stream.close();
+                }
+                if (delivered != 0L && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-delivered);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void terminate(Throwable failure) {
+            cancelled = true;
+            stream.close();
+            if (failure == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(failure);
+            }
+        }
+    }
+}
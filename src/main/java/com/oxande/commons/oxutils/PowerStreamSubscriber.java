@@ -0,0 +1,108 @@
+package com.oxande.commons.oxutils;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * The producer of a {@link PowerStream} reading a reactive {@link Publisher}. The elements are requested
+ * by batches when the consumer of the stream has read them, then the number of elements requested and not
+ * yet read never exceeds the capacity of the stream: the publisher never blocks when it pushes an element.
+ *
+ * @param <T> the type of the elements.
+ */
+final class PowerStreamSubscriber<T> implements Subscriber<T>, Consumer<PowerStream.Pusher<T>>, PowerStream.Listener {
+    private final Publisher<? extends T> publisher;
+    private final int capacity;
+    private final int limit;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile PowerStream.Pusher<T> pusher;
+    private volatile Subscription subscription;
+    private volatile Throwable error = null;
+    private int consumed = 0;
+
+    PowerStreamSubscriber(Publisher<? extends T> publisher, int capacity) {
+        this.publisher = publisher;
+        this.capacity = capacity;
+        this.limit = Math.max(1, capacity / 2);
+    }
+
+    /**
+     * The producer: subscribe and wait for the end of the publisher.
+     *
+     * @param pusher the pusher of the stream.
+     */
+    @Override
+    public void accept(PowerStream.Pusher<T> pusher) {
+        this.pusher = pusher;
+        publisher.subscribe(this);
+        try {
+            done.await();
+        } catch (InterruptedException ex) {
+            // The stream has been closed.
+            Thread.currentThread().interrupt();
+            Subscription s = subscription;
+            if (s != null) {
+                s.cancel();
+            }
+            throw new CancellationException("The stream has been closed.");
+        }
+        if (error != null) {
+            pusher.throwException(error);
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (subscription != null) {
+            s.cancel();
+            return;
+        }
+        this.subscription = s;
+        s.request(capacity);
+    }
+
+    @Override
+    public void onNext(T t) {
+        try {
+            pusher.put(t);
+        } catch (RuntimeException ex) {
+            subscription.cancel();
+            onError(ex);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        this.error = t;
+        done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        done.countDown();
+    }
+
+    @Override
+    public void pushed() {
+        // Nothing to do.
+    }
+
+    /**
+     * Request more elements once the consumer has read half of the capacity.
+     *
+     * @param count the number of elements read.
+     */
+    @Override
+    public void taken(int count) {
+        consumed += count;
+        if (consumed >= limit) {
+            subscription.request(consumed);
+            consumed = 0;
+        }
+    }
+}
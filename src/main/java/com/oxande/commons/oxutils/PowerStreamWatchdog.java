@@ -0,0 +1,55 @@
+package com.oxande.commons.oxutils;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch the {@link PowerStream}s still running to log the producers blocked for too long. This is
+ * typically the case when the consumer has stopped to read the stream without closing it: the
+ * producer thread is then never released.
+ * <p>
+ * A single daemon thread checks the streams registered every {@link #PERIOD} milliseconds. The thread
+ * is only running when at least one stream is registered.
+ * </p>
+ */
+final class PowerStreamWatchdog {
+    static final long PERIOD = 250L;
+
+    private static final Set<PowerStream<?>> streams = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService scheduler = null;
+    private static ScheduledFuture<?> task = null;
+
+    private PowerStreamWatchdog() {
+    }
+
+    static synchronized void register(PowerStream<?> stream) {
+        streams.add(stream);
+        if (task == null) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "PowerStream-watchdog");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            task = scheduler.scheduleAtFixedRate(PowerStreamWatchdog::check, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static synchronized void unregister(PowerStream<?> stream) {
+        streams.remove(stream);
+        if (streams.isEmpty() && task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    private static void check() {
+        long now = System.nanoTime();
+        streams.forEach(s -> s.checkStalled(now));
+    }
+}
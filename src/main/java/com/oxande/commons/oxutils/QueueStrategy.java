@@ -0,0 +1,75 @@
+package com.oxande.commons.oxutils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The strategy to create the queue between the producers and the consumer of a {@link PowerStream}.
+ * <p>
+ * The {@link #LINKED} strategy is the default one and works in all the cases. When there is only one
+ * producer thread, the {@link #ringBuffer(WaitStrategy)} strategy avoids any allocation and lock when
+ * transferring the elements.
+ * </p>
+ */
+public interface QueueStrategy {
+
+    /**
+     * A {@link LinkedBlockingQueue} (one node allocated per element, one lock for each side).
+     */
+    QueueStrategy LINKED = new QueueStrategy() {
+        @Override
+        public <E> BlockingQueue<E> create(int capacity) {
+            return new LinkedBlockingQueue<>(capacity);
+        }
+    };
+
+    /**
+     * An {@link ArrayBlockingQueue} (preallocated, one lock shared by both sides).
+     */
+    QueueStrategy ARRAY = new QueueStrategy() {
+        @Override
+        public <E> BlockingQueue<E> create(int capacity) {
+            return new ArrayBlockingQueue<>(capacity);
+        }
+    };
+
+    /**
+     * Create the queue.
+     *
+     * @param capacity the capacity of the queue
+     * @param <E> the type of the elements.
+     * @return the queue created.
+     */
+    <E> BlockingQueue<E> create(int capacity);
+
+    /**
+     * Indicates the queue accepts only one producer thread (and one consumer thread).
+     *
+     * @return true if a single producer is supported.
+     */
+    default boolean isSingleProducer() {
+        return false;
+    }
+
+    /**
+     * A preallocated lock-free ring buffer for one producer thread and one consumer thread. The
+     * capacity is rounded to the next power of two.
+     *
+     * @param waitStrategy the way to wait when the buffer is full or empty.
+     * @return the strategy.
+     */
+    static QueueStrategy ringBuffer(WaitStrategy waitStrategy) {
+        return new QueueStrategy() {
+            @Override
+            public <E> BlockingQueue<E> create(int capacity) {
+                return new SpscRingBuffer<>(capacity, waitStrategy);
+            }
+
+            @Override
+            public boolean isSingleProducer() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package com.oxande.commons.oxutils;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * A k-way merge of sorted iterators. The heap contains the current element of each source,
+ * then taking the next element costs <code>O(log k)</code> and only one element per source is
+ * kept in memory. When two elements are equal, the element of the first source comes first.
+ * <p>
+ * The sources are read lazily: nothing is read before the first call to {@link #hasNext()}.
+ * </p>
+ *
+ * @param <T> the type of the elements.
+ */
+final class SortedMergeIterator<T> implements Iterator<T> {
+
+    private static final class Head<T> {
+        private final Iterator<T> source;
+        private final int index;
+        private T value;
+
+        Head(Iterator<T> source, int index) {
+            this.source = source;
+            this.index = index;
+        }
+    }
+
+    private final List<? extends Iterator<T>> sources;
+    private final PriorityQueue<Head<T>> heap;
+    private boolean started = false;
+
+    /**
+     * Create the merge.
+     *
+     * @param sources the sources, each one sorted by the comparator.
+     * @param comparator the comparator.
+     */
+    SortedMergeIterator(List<? extends Iterator<T>> sources, Comparator<? super T> comparator) {
+        Assert.notNull(comparator, "comparator");
+        this.sources = sources;
+        Comparator<Head<T>> byValue = (a, b) -> comparator.compare(a.value, b.value);
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()), byValue.thenComparingInt(h -> h.index));
+    }
+
+    private void start() {
+        for (int i = 0; i < sources.size(); i++) {
+            advance(new Head<>(sources.get(i), i));
+        }
+        started = true;
+    }
+
+    private void advance(Head<T> head) {
+        if (head.source.hasNext()) {
+            head.value = head.source.next();
+            heap.add(head);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            start();
+        }
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Head<T> head = heap.poll();
+        T value = head.value;
+        advance(head);
+        return value;
+    }
+}
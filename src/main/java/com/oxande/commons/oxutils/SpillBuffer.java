@@ -0,0 +1,252 @@
+package com.oxande.commons.oxutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A FIFO buffer on the disk used by a {@link PowerStream} when its queue is full. The records are
+ * written in memory-mapped segments of temporary files. A segment is deleted once read completely.
+ * <p>
+ * A record is the list of elements of a container (one element, or a chunk) or the end of the stream.
+ * It is stored as its length followed by the number of elements and the elements encoded by the
+ * {@link Codec}. The end of the stream is stored as a length of -1.
+ * </p>
+ * <p>
+ * This class is not thread-safe: the {@link PowerStream} synchronizes the accesses.
+ * </p>
+ *
+ * @param <T> the type of the elements.
+ */
+final class SpillBuffer<T> implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+    private static final int END_OF_STREAM = -1;
+
+    /**
+     * A temporary file mapped in memory. The buffer is used for writing, its duplicate for reading.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer writer;
+        private final ByteBuffer reader;
+
+        Segment(File directory, int size) throws IOException {
+            this.path = (directory == null
+                    ? Files.createTempFile("powerstream-", ".spill")
+                    : Files.createTempFile(directory.toPath(), "powerstream-", ".spill"));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid once the channel is closed.
+                this.writer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException ex) {
+                // Typically interrupted because the stream is closed: do not leave the file.
+                Files.deleteIfExists(path);
+                throw ex;
+            }
+            this.reader = writer.duplicate();
+        }
+
+        boolean isFullyRead() {
+            return reader.position() == writer.position();
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                // Typically on Windows when the file is still mapped.
+                LOG.debug("Can not delete {} now: {}", path, ex.toString());
+                path.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private final Codec<T> codec;
+    private final int segmentSize;
+    private final File directory;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream output = new DataOutputStream(bytes);
+    private long records = 0L;
+
+    /**
+     * Create the buffer (no file is created until the first record is written).
+     *
+     * @param codec the codec of the elements.
+     * @param segmentSize the size of each file.
+     * @param directory the directory of the files (the temporary directory if null).
+     */
+    SpillBuffer(Codec<T> codec, int segmentSize, File directory) {
+        Assert.isTrue(segmentSize > 4, "The segment size is too small.");
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.directory = directory;
+    }
+
+    /**
+     * Check if all the records written have been read.
+     *
+     * @return true if nothing to read.
+     */
+    boolean isEmpty() {
+        return records == 0L;
+    }
+
+    /**
+     * Write a list of elements.
+     *
+     * @param values the elements.
+     */
+    void write(List<T> values) {
+        try {
+            bytes.reset();
+            output.writeInt(values.size());
+            for (T value : values) {
+                codec.encode(value, output);
+            }
+            output.flush();
+            append(bytes.size());
+            bytes.writeTo(new ByteBufferOutput(segments.getLast().writer));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can not write to the spill file", ex);
+        }
+        records++;
+    }
+
+    /**
+     * Write the end of the stream.
+     */
+    void writeEnd() {
+        try {
+            append(END_OF_STREAM);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can not write to the spill file", ex);
+        }
+        records++;
+    }
+
+    /**
+     * Write the length of the record, creating a new segment if the record does not fit
+     * in the current one.
+     *
+     * @param length the length of the record.
+     * @throws IOException if the file can not be created.
+     */
+    private void append(int length) throws IOException {
+        int needed = Integer.BYTES + Math.max(length, 0);
+        if (segments.isEmpty() || segments.getLast().writer.remaining() < needed) {
+            Segment segment = new Segment(directory, Math.max(segmentSize, needed));
+            LOG.debug("Spilling to {}...", segment.path);
+            segments.add(segment);
+        }
+        segments.getLast().writer.putInt(length);
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the elements or null for the end of the stream.
+     */
+    Object[] read() {
+        Assert.isTrue(!isEmpty(), "Nothing to read.");
+        Segment segment = segments.getFirst();
+        while (segment.isFullyRead()) {
+            segments.removeFirst().delete();
+            segment = segments.getFirst();
+        }
+        records--;
+        int length = segment.reader.getInt();
+        if (length == END_OF_STREAM) {
+            return null;
+        }
+        try {
+            ByteBuffer record = segment.reader.slice();
+            // The casts keep the binary compatibility with Java 8 (covariant return types since Java 9).
+            ((Buffer) record).limit(length);
+            ((Buffer) segment.reader).position(segment.reader.position() + length);
+            DataInputStream input = new DataInputStream(new ByteBufferInput(record));
+            Object[] values = new Object[input.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = codec.decode(input);
+            }
+            return values;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can not read the spill file", ex);
+        }
+    }
+
+    /**
+     * Delete all the files.
+     */
+    @Override
+    public void close() {
+        segments.forEach(Segment::delete);
+        segments.clear();
+        records = 0L;
+    }
+
+    /**
+     * Write into a {@link ByteBuffer}.
+     */
+    private static final class ByteBufferOutput extends OutputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+
+    /**
+     * Read from a {@link ByteBuffer}.
+     */
+    private static final class ByteBufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.oxande.commons.oxutils;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue for exactly one producer thread and one consumer thread. The buffer is preallocated
+ * and the producer and the consumer only communicate through two sequences (the number of elements
+ * written and the number of elements read), each one written by a single thread. Then no lock and no
+ * allocation are needed to transfer an element.
+ * <p>
+ * The sequences are padded to live on their own cache line, otherwise the producer and the consumer
+ * would invalidate each other cache at each access (false sharing). Each side also keeps a cached copy
+ * of the other sequence to read the volatile field only when the buffer seems full (or empty).
+ * </p>
+ * <p>
+ * This queue is used by the {@link PowerStream} through {@link QueueStrategy#ringBuffer(WaitStrategy)}.
+ * The iterator is weakly consistent (the elements read by the consumer during the iteration are
+ * skipped) and can be used by any thread, but it can not remove the elements.
+ * </p>
+ *
+ * @param <E> the type of the elements.
+ */
+final class SpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50_000L;
+
+    @SuppressWarnings("unused")
+    static class LeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    static class Value extends LeftPadding {
+        volatile long value;
+        /**
+         * The last value read of the other sequence (only used by the owner of this sequence).
+         */
+        long cached;
+    }
+
+    @SuppressWarnings("unused")
+    static final class Sequence extends Value {
+        private static final AtomicLongFieldUpdater<Value> UPDATER = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+        long p11, p12, p13, p14, p15, p16;
+
+        void publish(long v, boolean fence) {
+            if (fence) {
+                value = v;
+            } else {
+                UPDATER.lazySet(this, v);
+            }
+        }
+    }
+
+    private final Object[] buffer;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence head = new Sequence(); // Next element to read (written by the consumer)
+    private final Sequence tail = new Sequence(); // Next element to write (written by the producer)
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private volatile boolean consumerWaiting = false;
+    private volatile boolean producerWaiting = false;
+
+    SpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        Assert.isTrue(capacity > 0 && capacity <= (1 << 30), "Invalid capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        if (waitStrategy == WaitStrategy.BLOCKING) {
+            this.lock = new ReentrantLock();
+            this.notEmpty = lock.newCondition();
+            this.notFull = lock.newCondition();
+        } else {
+            this.lock = null;
+            this.notEmpty = null;
+            this.notFull = null;
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Assert.notNull(e, "element");
+        long t = tail.value;
+        if (t - tail.cached >= buffer.length) {
+            tail.cached = head.value;
+            if (t - tail.cached >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) t & mask] = e;
+        // With a blocking strategy, the store must be visible before we check the consumer is waiting.
+        tail.publish(t + 1, lock != null);
+        if (lock != null && consumerWaiting) {
+            signal(notEmpty);
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.value;
+        if (h >= head.cached) {
+            head.cached = tail.value;
+            if (h >= head.cached) {
+                return null;
+            }
+        }
+        int index = (int) h & mask;
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        head.publish(h + 1, lock != null);
+        if (lock != null && producerWaiting) {
+            signal(notFull);
+        }
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long h = head.value;
+        return h < tail.value ? (E) buffer[(int) h & mask] : null;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        int tries = 0;
+        while (!offer(e)) {
+            if (lock != null) {
+                awaitNotFull(Long.MAX_VALUE);
+            } else {
+                tries = idle(tries);
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int tries = 0;
+        while (!offer(e)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (lock != null) {
+                awaitNotFull(remaining);
+            } else {
+                tries = idle(tries);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        int tries = 0;
+        while ((e = poll()) == null) {
+            if (lock != null) {
+                awaitNotEmpty(Long.MAX_VALUE);
+            } else {
+                tries = idle(tries);
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        int tries = 0;
+        while ((e = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            if (lock != null) {
+                awaitNotEmpty(remaining);
+            } else {
+                tries = idle(tries);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Wait a little bit, depending on the (non blocking) wait strategy.
+     *
+     * @param tries the number of tries already done.
+     * @return the new number of tries.
+     * @throws InterruptedException if the thread has been interrupted.
+     */
+    private int idle(int tries) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        switch (waitStrategy) {
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+                if (tries >= SPIN_TRIES) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                break;
+            default:
+                // Just spin
+                break;
+        }
+        return tries + 1;
+    }
+
+    private void awaitNotEmpty(long nanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            consumerWaiting = true;
+            if (isEmpty()) {
+                notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            consumerWaiting = false;
+            lock.unlock();
+        }
+    }
+
+    private void awaitNotFull(long nanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            producerWaiting = true;
+            if (remainingCapacity() == 0) {
+                notFull.awaitNanos(nanos);
+            }
+        } finally {
+            producerWaiting = false;
+            lock.unlock();
+        }
+    }
+
+    private void signal(Condition condition) {
+        lock.lock();
+        try {
+            condition.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        long h = head.value;
+        return (int) Math.max(0L, Math.min(buffer.length, tail.value - h));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.value >= tail.value;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return buffer.length - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int nb = 0;
+        E e;
+        while (nb < maxElements && (e = poll()) != null) {
+            c.add(e);
+            nb++;
+        }
+        return nb;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private final long end = tail.value;
+            private long position = head.value;
+            private E next = null;
+
+            /**
+             * Read the next element still in the buffer.
+             *
+             * @return the element, null if none.
+             */
+            @SuppressWarnings("unchecked")
+            private E advance() {
+                while (position < end) {
+                    E e = (E) buffer[(int) position & mask];
+                    // Read by the consumer in the meantime: the slot can be empty or reused.
+                    if (e != null && position >= head.value) {
+                        position++;
+                        return e;
+                    }
+                    position++;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = advance();
+                }
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                E e = next;
+                next = null;
+                return e;
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.oxande.commons.oxutils;
+
+/**
+ * The strategy used by a {@link PowerStream} ring buffer (see {@link QueueStrategy#ringBuffer(WaitStrategy)})
+ * when the producer finds the buffer full or the consumer finds it empty.
+ * <p>
+ * The strategies are sorted from the lowest latency (but burning a CPU while waiting) to the
+ * lowest CPU usage (but with the highest latency). Do not use {@link #SPIN} or {@link #YIELD}
+ * when the number of cores is smaller than the number of busy threads.
+ * </p>
+ */
+public enum WaitStrategy {
+    /**
+     * Loop on the sequence until it changes.
+     */
+    SPIN,
+
+    /**
+     * Give the processor to another thread between two checks.
+     */
+    YIELD,
+
+    /**
+     * Spin a few times then park the thread for a short time between two checks.
+     */
+    PARK,
+
+    /**
+     * Wait on a condition signaled by the other side. This is the cheapest for the CPU.
+     */
+    BLOCKING
+}
@@ -0,0 +1,62 @@
+package com.oxande.commons.oxutils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A budget of weight (typically bytes) shared by the producers and the consumer of a {@link PowerStream}.
+ * The producers acquire the weight of the elements before pushing them, the consumer releases it when
+ * the elements are taken from the queue.
+ * <p>
+ * An element heavier than the whole budget is accepted when nothing else is in flight, otherwise the
+ * producer would be blocked forever.
+ * </p>
+ */
+final class WeightBudget {
+    private final long max;
+    private long used = 0L;
+
+    WeightBudget(long max) {
+        Assert.isTrue(max > 0, "The budget must be strictly positive.");
+        this.max = max;
+    }
+
+    /**
+     * Acquire the weight if available.
+     *
+     * @param weight the weight.
+     * @return true if acquired.
+     */
+    synchronized boolean tryAcquire(long weight) {
+        if (used == 0L || used + weight <= max) {
+            used += weight;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Acquire the weight, waiting if necessary.
+     *
+     * @param weight the weight.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if acquired, false if the time has elapsed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    synchronized boolean acquire(long weight, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryAcquire(weight)) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    synchronized void release(long weight) {
+        used -= weight;
+        notifyAll();
+    }
+}
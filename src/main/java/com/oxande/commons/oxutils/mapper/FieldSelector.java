@@ -0,0 +1,83 @@
+package com.oxande.commons.oxutils.mapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A projection of a JSON response: the fields to write, for example <code>a,b.c,d[*].id</code>.
+ * The specification is parsed once into a tree, each node giving the fields selected in an
+ * object. A field selected without sub-field (<code>a</code>) is written completely. The arrays
+ * are transparent: <code>d[*].id</code> and <code>d.id</code> both select the <code>id</code> of
+ * the elements of <code>d</code>.
+ *
+ * @see ProjectionFilter
+ */
+public final class FieldSelector {
+    /**
+     * Select everything.
+     */
+    public static final FieldSelector ALL = new FieldSelector(null);
+
+    private final Map<String, FieldSelector> children;
+
+    private FieldSelector(Map<String, FieldSelector> children) {
+        this.children = children;
+    }
+
+    /**
+     * Parse a specification: field paths separated by commas, the names of a path being separated
+     * by dots. A name can be followed by <code>[*]</code> for an array.
+     *
+     * @param fields the specification (null or empty to select everything).
+     * @return the selector.
+     * @throws IllegalArgumentException if the specification is malformed.
+     */
+    public static FieldSelector parse(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return ALL;
+        }
+        FieldSelector root = new FieldSelector(new LinkedHashMap<>());
+        for (String path : fields.split(",")) {
+            path = path.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            String[] names = path.split("\\.", -1);
+            FieldSelector node = root;
+            for (int i = 0; i < names.length && node != ALL; i++) {
+                String name = names[i].trim();
+                if (name.endsWith("[*]")) {
+                    name = name.substring(0, name.length() - 3);
+                }
+                if (name.isEmpty() || name.contains("[") || name.contains("]")) {
+                    throw new IllegalArgumentException("Invalid field: " + path);
+                }
+                if (i == names.length - 1) {
+                    node.children.put(name, ALL);
+                } else {
+                    node = node.children.computeIfAbsent(name, k -> new FieldSelector(new LinkedHashMap<>()));
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * The selector of a field.
+     *
+     * @param name the name of the field.
+     * @return the selector of the content of the field, null if the field is not selected.
+     */
+    public FieldSelector child(String name) {
+        return this == ALL ? ALL : children.get(name);
+    }
+
+    public boolean isAll() {
+        return this == ALL;
+    }
+
+    @Override
+    public String toString() {
+        return this == ALL ? "*" : children.toString();
+    }
+}
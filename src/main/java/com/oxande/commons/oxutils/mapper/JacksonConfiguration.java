@@ -41,6 +41,7 @@ public class JacksonConfiguration {
         simpleModule.addSerializer(Instant.class, new InstantSerializer());
         simpleModule.addSerializer(Duration.class, new DurationSerializer());
         simpleModule.addSerializer(BigDecimal.class, new MoneySerializer());
+        simpleModule.addSerializer(RawJson.class, new RawJsonSerializer());
         mapper.registerModule(simpleModule);
 
         // Use local timezone for mapping.
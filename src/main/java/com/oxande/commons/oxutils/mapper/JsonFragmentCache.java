@@ -0,0 +1,145 @@
+package com.oxande.commons.oxutils.mapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A cache of serialized JSON fragments (reference data, configuration blocks, enumerations...)
+ * to avoid serializing the same objects for each request. The fragments are put in the responses
+ * with {@link com.oxande.commons.oxutils.DataModel#putRaw(String, RawJson)}.
+ *
+ * <pre>
+ *     private final JsonFragmentCache cache = new JsonFragmentCache(100, 10, TimeUnit.MINUTES);
+ *
+ *     model.putRaw("countries", cache.get("countries", countryDao.getVersion(), countryDao::findAll));
+ * </pre>
+ *
+ * <p>
+ * A fragment is identified by its name and its version: when the data changes, give a new version
+ * (a timestamp, a counter...) to get the new fragment. The cache is bounded: the least recently
+ * used fragment is evicted when full. A fragment is also evicted once its time to live has expired.
+ * This class is thread-safe; a fragment missing can be computed by several threads at the same time.
+ * </p>
+ */
+public class JsonFragmentCache {
+    private static final Logger LOG = LoggerFactory.getLogger(JsonFragmentCache.class);
+
+    private static final class Key {
+        private final String name;
+        private final Object version;
+
+        Key(String name, Object version) {
+            this.name = name;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return name.equals(other.name) && Objects.equals(version, other.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + Objects.hashCode(version);
+        }
+    }
+
+    private static final class Fragment {
+        private final RawJson json;
+        private final long expiresAt;
+
+        Fragment(RawJson json, long expiresAt) {
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long timeToLive;
+    private final Map<Key, Fragment> fragments;
+
+    /**
+     * Create the cache.
+     *
+     * @param maxEntries the maximum number of fragments.
+     * @param timeToLive the time to live of a fragment.
+     * @param unit the unit of the time to live.
+     */
+    public JsonFragmentCache(int maxEntries, long timeToLive, TimeUnit unit) {
+        if (maxEntries <= 0 || timeToLive <= 0) {
+            throw new IllegalArgumentException("The size and the time to live must be strictly positive.");
+        }
+        this.timeToLive = unit.toNanos(timeToLive);
+        this.fragments = new LinkedHashMap<Key, Fragment>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Fragment> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a fragment, serializing the value if the fragment is not in the cache (or expired).
+     *
+     * @param name the name of the fragment.
+     * @param version the version of the data (can be null).
+     * @param value provides the value to serialize.
+     * @return the fragment.
+     */
+    public RawJson get(String name, Object version, Supplier<?> value) {
+        Key key = new Key(name, version);
+        long now = System.nanoTime();
+        synchronized (fragments) {
+            Fragment fragment = fragments.get(key);
+            if (fragment != null && now - fragment.expiresAt < 0) {
+                return fragment.json;
+            }
+        }
+        // Serialized outside the lock: the supplier can be slow (a database access).
+        LOG.debug("Serializing the fragment {} (version {})...", name, version);
+        RawJson json = RawJson.serialize(value.get());
+        synchronized (fragments) {
+            fragments.put(key, new Fragment(json, now + timeToLive));
+        }
+        return json;
+    }
+
+    /**
+     * Remove all the versions of a fragment.
+     *
+     * @param name the name of the fragment.
+     */
+    public void invalidate(String name) {
+        synchronized (fragments) {
+            fragments.keySet().removeIf(key -> key.name.equals(name));
+        }
+    }
+
+    public void clear() {
+        synchronized (fragments) {
+            fragments.clear();
+        }
+    }
+
+    /**
+     * The number of fragments in the cache (including the expired ones not yet evicted).
+     *
+     * @return the number of fragments.
+     */
+    public int size() {
+        synchronized (fragments) {
+            return fragments.size();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.oxande.commons.oxutils.mapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Jackson filter writing only the fields selected by a {@link FieldSelector}. The fields not
+ * selected are skipped while writing: nothing is serialized for them.
+ * <p>
+ * The selector is given as an attribute of the writer (<code>writer.withAttribute(FieldSelector.class, selector)</code>);
+ * the path of the current object is given by the context of the generator. Without selector,
+ * all the fields are written. The filter applies to the POJOs and the maps, not to the
+ * {@link com.fasterxml.jackson.databind.JsonNode}s nor the {@link RawJson} values.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class ProjectionFilter extends SimpleBeanPropertyFilter {
+    public static final String FILTER_ID = "oxutils.projection";
+
+    /**
+     * Configure a mapper (typically a copy of {@link JacksonConfiguration#objectMapper()}) to
+     * apply the filter to all the classes not having their own filter.
+     *
+     * @param mapper the mapper.
+     * @return the mapper.
+     */
+    public static ObjectMapper configure(ObjectMapper mapper) {
+        mapper.setAnnotationIntrospector(new JacksonAnnotationIntrospector() {
+            @Override
+            public Object findFilterId(Annotated a) {
+                Object id = super.findFilterId(a);
+                return (id == null && a instanceof AnnotatedClass ? FILTER_ID : id);
+            }
+        });
+        mapper.setFilterProvider(new SimpleFilterProvider().addFilter(FILTER_ID, new ProjectionFilter()));
+        return mapper;
+    }
+
+    @Override
+    public void serializeAsField(Object pojo, JsonGenerator jgen, SerializerProvider provider, PropertyWriter writer) throws Exception {
+        FieldSelector selector = (FieldSelector) provider.getAttribute(FieldSelector.class);
+        if (selector != null) {
+            selector = selectorOf(jgen.getOutputContext(), selector);
+        }
+        if (selector == null || selector.child(writer.getName()) != null) {
+            writer.serializeAsField(pojo, jgen, provider);
+        } else if (!jgen.canOmitFields()) {
+            writer.serializeAsOmittedField(pojo, jgen, provider);
+        }
+    }
+
+    /**
+     * The selector of the object being written.
+     *
+     * @param context the context of the object.
+     * @param root the selector of the root object.
+     * @return the selector, null if the object is not selected.
+     */
+    private static FieldSelector selectorOf(JsonStreamContext context, FieldSelector root) {
+        List<String> path = new ArrayList<>();
+        for (JsonStreamContext c = context.getParent(); c != null; c = c.getParent()) {
+            if (c.inObject()) {
+                path.add(c.getCurrentName());
+            }
+        }
+        FieldSelector selector = root;
+        for (int i = path.size() - 1; i >= 0 && selector != null && !selector.isAll(); i--) {
+            selector = selector.child(path.get(i));
+        }
+        return selector;
+    }
+}
@@ -0,0 +1,90 @@
+package com.oxande.commons.oxutils.mapper;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSON value already serialized. It is written verbatim (see {@link RawJsonSerializer}),
+ * then it must be valid JSON: this is not checked.
+ * <p>
+ * The UTF-8 encoding of the value is computed once and kept, then writing the same instance
+ * in many responses costs a copy of bytes.
+ * </p>
+ *
+ * @see JsonFragmentCache
+ */
+public final class RawJson {
+    private final SerializedString json;
+
+    private RawJson(String json) {
+        this.json = new SerializedString(json);
+    }
+
+    /**
+     * Create the value from its JSON text.
+     *
+     * @param json the JSON text.
+     * @return the value.
+     */
+    public static RawJson of(String json) {
+        if (json == null) {
+            throw new IllegalArgumentException("The JSON can not be null.");
+        }
+        return new RawJson(json);
+    }
+
+    /**
+     * Create the value from its JSON text encoded in UTF-8.
+     *
+     * @param json the bytes.
+     * @return the value.
+     */
+    public static RawJson of(byte[] json) {
+        if (json == null) {
+            throw new IllegalArgumentException("The JSON can not be null.");
+        }
+        return new RawJson(new String(json, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Serialize an object (using {@link JacksonConfiguration#objectMapper()}).
+     *
+     * @param value the object.
+     * @return the value.
+     * @throws IllegalArgumentException if the object can not be serialized.
+     */
+    public static RawJson serialize(Object value) {
+        try {
+            return new RawJson(JacksonConfiguration.objectMapper().writeValueAsString(value));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Can not serialize " + value, ex);
+        }
+    }
+
+    /**
+     * The value, to be given to {@link com.fasterxml.jackson.core.JsonGenerator#writeRawValue(SerializableString)}.
+     *
+     * @return the value.
+     */
+    public SerializableString getValue() {
+        return json;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof RawJson && ((RawJson) obj).json.getValue().equals(json.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return json.getValue().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return json.getValue();
+    }
+}
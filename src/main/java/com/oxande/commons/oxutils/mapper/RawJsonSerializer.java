@@ -0,0 +1,29 @@
+package com.oxande.commons.oxutils.mapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+@SuppressWarnings("serial")
+public class RawJsonSerializer extends StdSerializer<RawJson> {
+
+    public RawJsonSerializer() {
+        this(RawJson.class);
+    }
+
+    public RawJsonSerializer(Class<RawJson> t) {
+        super(t);
+    }
+
+    @Override
+    public void serialize(RawJson value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        if (value == null) {
+            jgen.writeNull();
+        } else {
+            // Already serialized
+            jgen.writeRawValue(value.getValue());
+        }
+    }
+}
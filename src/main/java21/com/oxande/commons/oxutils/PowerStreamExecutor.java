@@ -0,0 +1,29 @@
+package com.oxande.commons.oxutils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the default {@link Executor} running the producers of the {@link PowerStream}s.
+ * <p>
+ * This is the Java 21 version of the class: each producer runs in its own virtual thread. A
+ * producer blocked by a full queue or waiting for its source does not hold a platform thread.
+ * </p>
+ */
+final class PowerStreamExecutor {
+    private static final ExecutorService DEFAULT = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("PowerStream-", 1).factory());
+
+    private PowerStreamExecutor() {
+    }
+
+    /**
+     * Get the default executor.
+     *
+     * @return the shared executor.
+     */
+    static Executor defaultExecutor() {
+        return DEFAULT;
+    }
+}
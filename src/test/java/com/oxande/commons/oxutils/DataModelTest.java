@@ -0,0 +1,501 @@
+package com.oxande.commons.oxutils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.oxande.commons.oxutils.mapper.FieldSelector;
+import com.oxande.commons.oxutils.mapper.JacksonConfiguration;
+import com.oxande.commons.oxutils.mapper.RawJson;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class DataModelTest {
+
+    static String body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+        DataModel model = new DataModel();
+        model.putString("name", "Chêne");
+        model.putList("values", Arrays.asList(1, 2, 3));
+        model.putObject("nothing", null);
+        String expected = model.success().getBody();
+        ResponseEntity<StreamingResponseBody> response = model.stream();
+        Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assert.assertEquals(MediaType.APPLICATION_JSON, response.getHeaders().getContentType());
+        Assert.assertEquals(expected, body(response));
+        Assert.assertEquals("{\"success\":true}", body(new DataModel().stream()));
+    }
+
+    @Test
+    public void lazyListTest() throws IOException {
+        List<Integer> values = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+        DataModel model = new DataModel();
+        model.putLazy("values", values, null, 10);
+        String json = body(model.stream());
+        Assert.assertTrue(json, json.startsWith("{\"values\":[0,1,2,3,4,5,6,7,8,9],\"cursor\":{\"values\":\""));
+        String cursor = cursorOf(json);
+        Assert.assertEquals(10, DataModel.offsetOf(cursor));
+
+        model = new DataModel();
+        model.putLazy("values", values, cursor, 10);
+        json = body(model.stream());
+        Assert.assertTrue(json, json.startsWith("{\"values\":[10,11,12,13,14,15,16,17,18,19],\"cursor\":"));
+
+        // The last page: no cursor
+        model = new DataModel();
+        model.putLazy("values", values, cursorOf(json), 10);
+        Assert.assertEquals("{\"values\":[20,21,22,23,24]}", body(model.stream()));
+
+        // A stream, closed once written
+        AtomicBoolean closed = new AtomicBoolean();
+        model = new DataModel();
+        model.putLazy("values", values.stream().onClose(() -> closed.set(true)), cursor, 3);
+        Assert.assertFalse(closed.get());
+        Assert.assertTrue(model.success().getBody().startsWith("{\"values\":[10,11,12],\"cursor\":"));
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void eagerListTest() {
+        List<Integer> values = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+        List<Integer> withNull = Arrays.asList(null, 1, 2, null, 3);
+        DataModel model = new DataModel();
+        model.putList("values", values, 20, 10);
+        model.putList("nonNull", withNull, 1, 10);
+        model.putStream("stream", values.stream());
+        Assert.assertEquals(Arrays.asList(20, 21, 22, 23, 24), model.get("values"));
+        Assert.assertEquals(Arrays.asList(2, 3), model.get("nonNull"));
+        Assert.assertEquals(values, model.get("stream"));
+        String json = model.success().getBody();
+        Assert.assertEquals(json, model.success().getBody());
+    }
+
+    @Test
+    public void lazyDeepPageTest() throws IOException {
+        AtomicInteger reads = new AtomicInteger();
+        List<Integer> values = new CountingList(1_000_000, reads);
+        DataModel model = new DataModel();
+        model.putLazy("values", values, DataModel.toCursor(999_990), 5);
+        String json = body(model.stream());
+        Assert.assertTrue(json, json.startsWith("{\"values\":[999990,999991,999992,999993,999994],\"cursor\":"));
+        Assert.assertThat(reads.get(), Matchers.lessThan(10));
+    }
+
+    @Test
+    public void lazyNullTest() throws IOException {
+        // The null elements are not written but count in the offsets.
+        DataModel model = new DataModel();
+        model.putLazy("values", Arrays.asList(1, null, 2, 3, null, 4), null, 2);
+        String json = body(model.stream());
+        Assert.assertTrue(json, json.startsWith("{\"values\":[1,2],\"cursor\":"));
+        Assert.assertEquals(3, DataModel.offsetOf(cursorOf(json)));
+    }
+
+    @Test
+    public void reservedKeyTest() throws IOException {
+        // The keys are free while the model does not need them.
+        DataModel model = new DataModel();
+        model.put(DataModel.CURSOR_KEY, "value");
+        model.put(DataModel.ERRORS_KEY, 0);
+        model.putLazy("values", Arrays.asList(1, 2), null, 10);
+        Assert.assertEquals("{\"cursor\":\"value\",\"values\":[1,2],\"errors\":0}", body(model.stream()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cursorCollisionTest() throws IOException {
+        DataModel model = new DataModel();
+        model.put(DataModel.CURSOR_KEY, "value");
+        model.putLazy("values", Arrays.asList(1, 2), null, 1);
+        body(model.stream());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void errorsCollisionTest() {
+        DataModel model = new DataModel();
+        model.put(DataModel.ERRORS_KEY, "value");
+        model.async("failing", () -> {
+            throw new IllegalStateException("Backend down");
+        });
+        model.success();
+    }
+
+    /**
+     * A list counting the elements read.
+     */
+    private static class CountingList extends AbstractList<Integer> implements RandomAccess {
+        private final int size;
+        private final AtomicInteger reads;
+
+        CountingList(int size, AtomicInteger reads) {
+            this.size = size;
+            this.reads = reads;
+        }
+
+        @Override
+        public Integer get(int index) {
+            reads.incrementAndGet();
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static String cursorOf(String json) throws IOException {
+        return JacksonConfiguration.objectMapper().readTree(json).get("cursor").get("values").asText();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCursorTest() {
+        DataModel.offsetOf("not a cursor");
+    }
+
+    @Test(timeout = 10_000)
+    public void ndjsonTest() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<Map<String, Object>> records = IntStream.range(0, 3).mapToObj(i -> Collections.singletonMap("id", i));
+        ResponseEntity<StreamingResponseBody> response = DataModel.ndjson(records.onClose(() -> closed.set(true)));
+        Assert.assertEquals(MediaType.APPLICATION_NDJSON, response.getHeaders().getContentType());
+        Assert.assertEquals("{\"id\":0}\n{\"id\":1}\n{\"id\":2}\n", body(response));
+        Assert.assertTrue(closed.get());
+
+        // From a PowerStream, failing after the first record
+        PowerStream<Integer> stream = PowerStream.<Integer>builder().iterator(p -> {
+            p.put(1);
+            throw new IllegalStateException("Database down");
+        });
+        String[] lines = body(DataModel.ndjson(stream)).split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals("1", lines[0]);
+        Assert.assertTrue(lines[1], lines[1].startsWith("{\"error\":{\"code\":\"PowerStreamException\""));
+        Assert.assertTrue(stream.isClosed());
+    }
+
+    @Test(timeout = 10_000)
+    public void ndjsonFlushTest() throws IOException {
+        // The first record is sent while the producer waits
+        CountDownLatch flushed = new CountDownLatch(1);
+        AtomicBoolean sent = new AtomicBoolean();
+        ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushed.countDown();
+            }
+        };
+        PowerStream<Integer> stream = PowerStream.<Integer>builder().iterator(p -> {
+            p.put(1);
+            try {
+                sent.set(flushed.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            p.put(2);
+        });
+        DataModel.ndjson(stream).getBody().writeTo(output);
+        Assert.assertTrue(sent.get());
+        Assert.assertEquals("1\n2\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void ndjsonFlushIntervalTest() throws IOException {
+        // A stream is flushed at each interval, not for each record.
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        DataModel.ndjson(IntStream.range(0, 10_000).boxed()).getBody().writeTo(output);
+        Assert.assertThat(flushes.get(), Matchers.lessThan(100));
+        Assert.assertTrue(new String(output.toByteArray(), StandardCharsets.UTF_8).endsWith("\n9999\n"));
+    }
+
+    @Test
+    public void ndjsonRecordFailureTest() throws IOException {
+        // The record failing to serialize is not written at all
+        Object failing = new Object() {
+            public String getName() {
+                return "name";
+            }
+
+            public String getValue() {
+                throw new IllegalStateException("Not available");
+            }
+        };
+        String json = body(DataModel.ndjson(Stream.of(Collections.singletonMap("id", 0), failing)));
+        String[] lines = json.split("\n");
+        Assert.assertEquals(json, 2, lines.length);
+        Assert.assertEquals("{\"id\":0}", lines[0]);
+        Assert.assertTrue(lines[1], lines[1].startsWith("{\"error\":{"));
+    }
+
+    @Test
+    public void etagTest() {
+        DataModel model = new DataModel().with("count", 42);
+        ResponseEntity<String> response = model.success();
+        String etag = response.getHeaders().getETag();
+        Assert.assertNotNull(etag);
+        Assert.assertEquals(etag, new DataModel().with("count", 42).success().getHeaders().getETag());
+        Assert.assertNotEquals(etag, new DataModel().with("count", 43).success().getHeaders().getETag());
+
+        HttpHeaders request = new HttpHeaders();
+        request.setIfNoneMatch(Arrays.asList("\"other\"", "W/" + etag));
+        ResponseEntity<String> notModified = model.success(request);
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        Assert.assertNull(notModified.getBody());
+        Assert.assertEquals(etag, notModified.getHeaders().getETag());
+
+        request.setIfNoneMatch("\"other\"");
+        ResponseEntity<String> modified = model.success(request);
+        Assert.assertEquals(HttpStatus.OK, modified.getStatusCode());
+        Assert.assertEquals("{\"count\":42}", modified.getBody());
+    }
+
+    @Test
+    public void asResponseOverrideTest() {
+        DataModel model = new DataModel() {
+            @Override
+            protected ResponseEntity<String> asResponse(Map<String, Object> map, HttpHeaders headers, HttpStatus code) {
+                headers.add("X-Hook", "response");
+                return super.asResponse(map, headers, code);
+            }
+
+            @Override
+            protected ResponseEntity<String> asResponse(Map<String, Object> map, HttpHeaders headers, HttpStatus code, HttpHeaders requestHeaders) {
+                headers.add("X-Hook", "conditional");
+                return super.asResponse(map, headers, code, requestHeaders);
+            }
+        }.with("count", 42);
+        Assert.assertEquals(Arrays.asList("response", "conditional"), model.success().getHeaders().get("X-Hook"));
+        Assert.assertEquals(Collections.singletonList("conditional"), model.success(new HttpHeaders()).getHeaders().get("X-Hook"));
+    }
+
+    @Test
+    public void rawTest() throws IOException {
+        DataModel model = new DataModel();
+        model.putRaw("config", "{\"debug\":false}".getBytes(StandardCharsets.UTF_8));
+        model.putRaw("names", RawJson.serialize(Arrays.asList("Chêne", "Hêtre")));
+        String expected = "{\"names\":[\"Chêne\",\"Hêtre\"],\"config\":{\"debug\":false}}";
+        Assert.assertEquals(expected, model.success().getBody());
+        Assert.assertEquals(expected, body(model.stream()));
+    }
+
+    @Test(timeout = 10_000)
+    public void asyncTest() throws IOException {
+        // Both values are computed at the same time (each one waits for the other)
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        DataModel model = new DataModel()
+                .setDeadline(5000, TimeUnit.MILLISECONDS)
+                .async("users", () -> {
+                    await(barrier);
+                    return 12;
+                })
+                .async("orders", () -> {
+                    await(barrier);
+                    return 34;
+                });
+        ResponseEntity<String> response = model.success();
+        Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+        JsonNode json = JacksonConfiguration.objectMapper().readTree(response.getBody());
+        Assert.assertEquals(12, json.get("users").asInt());
+        Assert.assertEquals(34, json.get("orders").asInt());
+
+        model = new DataModel()
+                .setDeadline(300, TimeUnit.MILLISECONDS)
+                .async("fast", () -> "ok")
+                .async("slow", () -> {
+                    ProgressWorker.sleep(2000);
+                    return "too late";
+                })
+                .async("failing", () -> {
+                    throw new IllegalStateException("Backend down");
+                });
+        response = model.success();
+        Assert.assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+        json = JacksonConfiguration.objectMapper().readTree(response.getBody());
+        Assert.assertEquals("ok", json.get("fast").asText());
+        Assert.assertFalse(json.has("slow"));
+        Assert.assertEquals("timeout", json.get("errors").get("slow").get("code").asText());
+        Assert.assertEquals("Backend down", json.get("errors").get("failing").get("message").asText());
+    }
+
+    @Test(timeout = 10_000)
+    public void asyncRejectedTest() throws IOException {
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        try {
+            DataModel model = new DataModel()
+                    .async("busy", () -> {
+                        try {
+                            return release.await(5, TimeUnit.SECONDS) ? "done" : "late";
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return "interrupted";
+                        }
+                    }, executor)
+                    .async("rejected", () -> "never", executor);
+            release.countDown();
+            ResponseEntity<String> response = model.success();
+            Assert.assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+            JsonNode json = JacksonConfiguration.objectMapper().readTree(response.getBody());
+            Assert.assertEquals("done", json.get("busy").asText());
+            Assert.assertFalse(json.has("rejected"));
+            Assert.assertEquals("rejected", json.get("errors").get("rejected").get("code").asText());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Not computed in parallel", ex);
+        }
+    }
+
+    public static class Item {
+        private final int id;
+        private final String label;
+
+        Item(int id, String label) {
+            this.id = id;
+            this.label = label;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    @Test
+    public void fieldsTest() throws IOException {
+        Map<String, Object> b = new LinkedHashMap<>();
+        b.put("c", 1);
+        b.put("x", 2);
+        DataModel model = new DataModel()
+                .setFields("a, b.c, d[*].id")
+                .with("a", new Item(1, "one"))
+                .withMap("b", b)
+                .withList("d", Arrays.asList(new Item(2, "two"), new Item(3, "three")), 0, 10)
+                .withString("e", "skipped");
+        JsonNode json = JacksonConfiguration.objectMapper().readTree(body(model.stream()));
+        Assert.assertEquals("{\"id\":1,\"label\":\"one\"}", json.get("a").toString());
+        Assert.assertEquals("{\"c\":1}", json.get("b").toString());
+        Assert.assertEquals("[{\"id\":2},{\"id\":3}]", json.get("d").toString());
+        Assert.assertFalse(json.has("e"));
+        Assert.assertFalse(json.has("success"));
+
+        FieldSelector selector = FieldSelector.parse("a.b,a");
+        Assert.assertTrue(selector.child("a").isAll());
+        Assert.assertNull(selector.child("b"));
+        Assert.assertTrue(FieldSelector.parse(null).isAll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFieldsTest() {
+        FieldSelector.parse("a..b");
+    }
+
+    @Test
+    public void compressedTest() throws IOException {
+        List<Integer> values = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        String expected = new DataModel().with("values", values).success().getBody();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "deflate;q=0.5, gzip");
+        ResponseEntity<byte[]> response = new DataModel().with("values", values).compressed(headers);
+        Assert.assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(expected, inflate(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+        // Unchanged: served from the cache.
+        Assert.assertSame(response.getBody(), new DataModel().with("values", values).compressed(headers).getBody());
+        // Each encoding has its own entity tag, any of them is accepted.
+        String etag = response.getHeaders().getETag();
+        String identity = new DataModel().with("values", values).success().getHeaders().getETag();
+        Assert.assertEquals(identity.replace("\"", "") + "-gzip", etag.replace("\"", ""));
+        HttpHeaders conditional = new HttpHeaders();
+        conditional.setIfNoneMatch(etag);
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, new DataModel().with("values", values).compressed(conditional).getStatusCode());
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, new DataModel().with("values", values).success(conditional).getStatusCode());
+
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate");
+        response = new DataModel().with("values", values).compressed(headers);
+        Assert.assertEquals("deflate", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(expected, inflate(new InflaterInputStream(new ByteArrayInputStream(response.getBody()))));
+
+        response = new DataModel().with("values", values).compressed(new HttpHeaders());
+        Assert.assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(expected, new String(response.getBody(), StandardCharsets.UTF_8));
+
+        // Too small to be compressed
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "*");
+        response = new DataModel().compressed(headers);
+        Assert.assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals("{\"success\":true}", new String(response.getBody(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compressedCollisionTest() throws IOException {
+        byte[] first = new byte[2048];
+        byte[] second = new byte[2048];
+        second[0] = 1;
+        // The same entity tag for two different payloads: the second one is compressed again.
+        byte[] compressed = HttpCompression.compress(first, 0L, HttpCompression.DEFLATE, "\"collision\"");
+        Assert.assertSame(compressed, HttpCompression.compress(first.clone(), 0L, HttpCompression.DEFLATE, "\"collision\""));
+        byte[] other = HttpCompression.compress(second, 0L, HttpCompression.DEFLATE, "\"collision\"");
+        Assert.assertEquals(new String(second, StandardCharsets.UTF_8), inflate(new InflaterInputStream(new ByteArrayInputStream(other))));
+    }
+
+    private static String inflate(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream input = in) {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = input.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
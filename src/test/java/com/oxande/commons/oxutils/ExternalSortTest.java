@@ -0,0 +1,68 @@
+package com.oxande.commons.oxutils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class ExternalSortTest {
+
+    @Test
+    public void inMemoryTest() {
+        try (Stream<Integer> sorted = ExternalSort.sort(Stream.of(5, 3, 9, 1), Comparator.naturalOrder(), PowerStreamTest.INT_CODEC, 1L << 20)) {
+            Assert.assertEquals("1,3,5,9", sorted.map(String::valueOf).collect(Collectors.joining(",")));
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void externalSortTest() throws IOException {
+        File directory = Files.createTempDirectory("sort").toFile();
+        Random random = new Random(42);
+        List<Integer> values = IntStream.range(0, 100_000).map(i -> random.nextInt()).boxed().collect(Collectors.toList());
+        // 1000 elements per run, then more than 64 runs: an intermediate merge is needed.
+        long budget = 1000 * (ExternalSort.OBJECT_OVERHEAD + Integer.BYTES);
+        try (Stream<Integer> sorted = ExternalSort.sort(values.stream(), Comparator.naturalOrder(), PowerStreamTest.INT_CODEC,
+                i -> ExternalSort.OBJECT_OVERHEAD + Integer.BYTES, budget, directory)) {
+            Assert.assertEquals(2, directory.list().length);
+            List<Integer> result = sorted.collect(Collectors.toList());
+            Assert.assertEquals(values.stream().sorted().collect(Collectors.toList()), result);
+        }
+        Assert.assertEquals(0, directory.list().length);
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test(timeout = 30_000)
+    public void encodedSizeTest() {
+        AtomicInteger encoded = new AtomicInteger();
+        Codec<Integer> codec = new Codec<Integer>() {
+            @Override
+            public void encode(Integer value, DataOutput out) throws IOException {
+                encoded.incrementAndGet();
+                PowerStreamTest.INT_CODEC.encode(value, out);
+            }
+
+            @Override
+            public Integer decode(DataInput in) throws IOException {
+                return PowerStreamTest.INT_CODEC.decode(in);
+            }
+        };
+        // 50 runs, merged without intermediate merge
+        long budget = 100 * (ExternalSort.OBJECT_OVERHEAD + 2 * Integer.BYTES);
+        try (Stream<Integer> sorted = ExternalSort.sort(IntStream.range(0, 5_000).map(i -> 4_999 - i).boxed(),
+                Comparator.naturalOrder(), codec, budget)) {
+            Assert.assertEquals(IntStream.range(0, 5_000).boxed().collect(Collectors.toList()), sorted.collect(Collectors.toList()));
+        }
+        Assert.assertEquals("Each element is encoded once", 5_000, encoded.get());
+    }
+}
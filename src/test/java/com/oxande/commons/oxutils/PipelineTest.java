@@ -0,0 +1,70 @@
+package com.oxande.commons.oxutils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PipelineTest {
+    public static Logger LOG = LoggerFactory.getLogger(PipelineTest.class);
+
+    @Test
+    public void stagesTest() {
+        AtomicLong total = new AtomicLong();
+        Pipeline<Integer> pipeline = Pipeline.<String>from(p -> {
+            for (int i = 0; i < 1000; i++) {
+                p.put(String.valueOf(i));
+            }
+        }).stage("parse", 4, Integer::parseInt)
+                .stage("enrich", 8, i -> {
+                    ProgressWorker.sleep(1); // Remote call
+                    return i * 2;
+                })
+                .stage("filter", 1, i -> i % 4 == 0 ? i : null);
+        pipeline.sink(total::addAndGet);
+
+        Assert.assertEquals(499_000L, total.get()); // 2 * (0 + 2 + ... + 998)
+        List<Pipeline.StageMetrics> metrics = pipeline.getMetrics();
+        Assert.assertEquals(3, metrics.size());
+        Assert.assertEquals(1000, metrics.get(0).getProcessed());
+        Assert.assertEquals(1000, metrics.get(2).getProcessed());
+        metrics.forEach(m -> LOG.info("{}", m));
+    }
+
+    @Test
+    public void skipErrorsTest() {
+        Pipeline<Integer> pipeline = Pipeline.<String>from(p -> {
+            p.put("1");
+            p.put("two");
+            p.put("3");
+        }).stage("parse", 2, 10, Pipeline.ErrorPolicy.SKIP, Integer::parseInt);
+        Assert.assertEquals(4, pipeline.stream().mapToInt(i -> i).sum());
+        Assert.assertEquals(1, pipeline.getMetrics().get(0).getErrors());
+    }
+
+    @Test(expected = PowerStream.PowerStreamException.class)
+    public void failTest() {
+        Pipeline.<String>from(p -> p.put("one"))
+                .stage("parse", 2, Integer::parseInt)
+                .sink(i -> Assert.fail("No element expected"));
+    }
+
+    @Test(timeout = 10_000)
+    public void multiStageFailTest() {
+        Pipeline<Integer> pipeline = Pipeline.<String>from(p -> p.put("one"))
+                .stage("parse", 2, Integer::parseInt)
+                .stage("double", 2, i -> i * 2)
+                .stage("increment", 2, i -> i + 1);
+        try {
+            pipeline.sink(i -> Assert.fail("No element expected"));
+            Assert.fail("The pipeline must fail");
+        } catch (PowerStream.PowerStreamException ex) {
+            // The original failure is one level down, whatever the number of stages.
+            Assert.assertEquals("Stage parse failed", ex.getMessage());
+            Assert.assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof NumberFormatException);
+        }
+    }
+}
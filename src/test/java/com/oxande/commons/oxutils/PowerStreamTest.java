@@ -1,11 +1,41 @@
 package com.oxande.commons.oxutils;
 
+import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 public class PowerStreamTest {
@@ -40,4 +70,821 @@ public class PowerStreamTest {
         Assert.assertEquals(nbElements, stream2.count());
     }
 
-}
\ No newline at end of file
+    @Test(timeout = 10_000)
+    public void fanInTest() {
+        // Each producer waits for the others: they all run at the same time.
+        CountDownLatch started = new CountDownLatch(8);
+        AtomicInteger concurrent = new AtomicInteger();
+        List<Consumer<PowerStream.Pusher<Integer>>> producers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int base = i * 100;
+            producers.add(p -> {
+                started.countDown();
+                try {
+                    if (started.await(5, TimeUnit.SECONDS)) {
+                        concurrent.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int j = 0; j < 100; j++) {
+                    p.put(base + j);
+                }
+            });
+        }
+        List<Integer> values = PowerStream.fanIn(producers, 8, 10).collect(Collectors.toList());
+        Assert.assertEquals(800, values.size());
+        Assert.assertEquals(800, values.stream().distinct().count());
+        Assert.assertEquals(8, concurrent.get());
+    }
+
+    @Test
+    public void chunkedGenerationTest() {
+        int nbElements = 1_000_000;
+        Chrono chrono = Chrono.started();
+        long count = PowerStream.<String>stream(p -> {
+            for (int i = 0; i < nbElements; i++) {
+                p.put("Joe");
+            }
+        }, 1000).count();
+        Assert.assertEquals(nbElements, count);
+        long simple = chrono.getDuration();
+        chrono.restart();
+
+        count = PowerStream.<String>builder()
+                .capacity(1000)
+                .chunked(100, 100, TimeUnit.MILLISECONDS)
+                .stream(p -> {
+                    for (int i = 0; i < nbElements; i++) {
+                        p.put("Joe");
+                    }
+                }).count();
+        Assert.assertEquals(nbElements, count);
+        long chunked = chrono.getDuration();
+        LOG.info("Transfer of {} elements: {} ms (simple), {} ms (chunked)", nbElements, simple, chunked);
+    }
+
+    @Test(timeout = 10_000)
+    public void chunkedLingerTest() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        AtomicBoolean delivered = new AtomicBoolean();
+        Iterator<Integer> it = PowerStream.<Integer>builder()
+                .chunked(1000, 10, TimeUnit.MILLISECONDS)
+                .iterator(p -> {
+                    p.put(1);
+                    ProgressWorker.sleep(20);
+                    p.put(2); // Pushed with 1 because of the linger
+                    p.put(3);
+                    try {
+                        // The partial chunk is received while the producer is still running.
+                        delivered.set(received.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        Assert.assertEquals(1, (int) it.next());
+        Assert.assertEquals(2, (int) it.next());
+        received.countDown();
+        Assert.assertEquals(3, (int) it.next());
+        Assert.assertFalse(it.hasNext());
+        Assert.assertTrue(delivered.get());
+    }
+
+    @Test
+    public void queueStrategiesTest() {
+        Map<String, QueueStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("LINKED", QueueStrategy.LINKED);
+        strategies.put("ARRAY", QueueStrategy.ARRAY);
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            strategies.put("RING/" + waitStrategy, QueueStrategy.ringBuffer(waitStrategy));
+        }
+
+        int nbElements = 200_000;
+        strategies.forEach((name, strategy) -> {
+            Chrono chrono = Chrono.started();
+            long[] sent = new long[nbElements];
+            long[] latency = new long[1];
+            int[] expected = new int[1];
+            long count = PowerStream.<Integer>stream(p -> {
+                for (int i = 0; i < nbElements; i++) {
+                    sent[i] = System.nanoTime();
+                    p.put(i);
+                }
+            }, 1024, strategy).peek(i -> {
+                Assert.assertEquals(name, expected[0]++, (int) i); // The order is kept
+                latency[0] += System.nanoTime() - sent[i];
+            }).count();
+            Assert.assertEquals(nbElements, count);
+            LOG.info("{}: {} elements/s, average latency {} us", name,
+                    nbElements * 1000L / Math.max(1, chrono.getDuration()), latency[0] / nbElements / 1000);
+        });
+    }
+
+    @Test
+    public void ringBufferIteratorTest() {
+        SpscRingBuffer<Integer> queue = new SpscRingBuffer<>(4, WaitStrategy.PARK);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(queue.offer(i));
+            if (i >= 3) {
+                Assert.assertEquals(i - 3, (int) queue.poll()); // Wraps around the buffer
+            }
+        }
+        Assert.assertEquals("[7, 8, 9]", queue.toString());
+        Assert.assertTrue(queue.contains(8));
+        Assert.assertFalse(queue.contains(6));
+        Iterator<Integer> it = queue.iterator();
+        Assert.assertEquals(7, (int) it.next());
+        queue.poll();
+        queue.poll(); // Read during the iteration: skipped
+        Assert.assertEquals(9, (int) it.next());
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ringBufferSingleProducerTest() {
+        List<Consumer<PowerStream.Pusher<Integer>>> producers = new ArrayList<>();
+        producers.add(p -> p.put(1));
+        producers.add(p -> p.put(2));
+        PowerStream.<Integer>builder().queue(QueueStrategy.ringBuffer(WaitStrategy.PARK)).fanIn(producers, 2);
+    }
+
+    @Test(timeout = 10_000)
+    public void earlyTerminationTest() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        try (Stream<Integer> stream = PowerStream.<Integer>builder()
+                .capacity(10)
+                .stallThreshold(100, TimeUnit.MILLISECONDS)
+                .stream(p -> {
+                    try {
+                        for (int i = 0; ; i++) {
+                            p.put(i);
+                        }
+                    } finally {
+                        running.set(false);
+                    }
+                })) {
+            Assert.assertEquals(Optional.of(0), stream.findFirst());
+            Thread.sleep(500); // The producer is blocked (and logged)
+            Assert.assertTrue(running.get());
+        }
+        for (int i = 0; i < 50 && running.get(); i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertFalse("The producer must be released", running.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void producerFailureTest() {
+        Iterator<Integer> it = PowerStream.iterator(p -> {
+            p.put(1);
+            throw new IllegalStateException("Database down");
+        }, 10);
+        Assert.assertEquals(1, (int) it.next());
+        try {
+            it.hasNext();
+            Assert.fail("The failure must be sent to the consumer");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("Database down", ex.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void fanInFailureTest() {
+        List<Consumer<PowerStream.Pusher<Integer>>> producers = new ArrayList<>();
+        producers.add(p -> p.sleep(500));
+        producers.add(p -> p.throwException(new IllegalStateException("LDAP down")));
+        try (Stream<Integer> stream = PowerStream.fanIn(producers, 2, 10)) {
+            stream.count();
+            Assert.fail("The failure must be sent to the consumer");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("LDAP down", ex.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void fanInFailureCancelTest() throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Consumer<PowerStream.Pusher<Integer>>> producers = new ArrayList<>();
+        producers.add(p -> {
+            try {
+                for (int i = 0; ; i++) {
+                    p.put(i);
+                }
+            } finally {
+                running.set(false);
+            }
+        });
+        producers.add(p -> {
+            p.sleep(100);
+            throw new IllegalStateException("boom");
+        });
+        // Not closed by the consumer: the failure must cancel the other producer.
+        Iterator<Integer> it = PowerStream.<Integer>builder().capacity(10).fanIn(producers, 2).iterator();
+        try {
+            it.forEachRemaining(v -> {
+            });
+            Assert.fail("The failure must be sent to the consumer");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("boom", ex.getCause().getMessage());
+        }
+        for (int i = 0; i < 50 && running.get(); i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertFalse("The other producer must be cancelled", running.get());
+        try {
+            it.hasNext();
+            Assert.fail("The failure must be thrown again");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("boom", ex.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void executorTest() {
+        int nbStreams = 500;
+        Set<String> defaultThreads = ConcurrentHashMap.newKeySet();
+        Chrono chrono = Chrono.started();
+        for (int i = 0; i < nbStreams; i++) {
+            Assert.assertEquals(1, PowerStream.<String>stream(p -> {
+                defaultThreads.add(Thread.currentThread().getName());
+                p.put("Joe");
+            }).count());
+        }
+        long pooled = chrono.getDuration();
+
+        Set<String> newThreads = ConcurrentHashMap.newKeySet();
+        chrono.restart();
+        for (int i = 0; i < nbStreams; i++) {
+            Assert.assertEquals(1, PowerStream.<String>builder().capacity(10).threadFactory(Thread::new).stream(p -> {
+                newThreads.add(Thread.currentThread().getName());
+                p.put("Joe");
+            }).count());
+        }
+        long created = chrono.getDuration();
+        LOG.info("{} streams: {} threads in {} ms (default executor), {} threads in {} ms (new threads)",
+                nbStreams, defaultThreads.size(), pooled, newThreads.size(), created);
+        Assert.assertEquals(nbStreams, newThreads.size());
+        Assert.assertThat(defaultThreads.size(), Matchers.lessThan(nbStreams));
+    }
+
+    @Test
+    public void parallelTest() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> values = pool.submit(() -> PowerStream.<Integer>builder()
+                .parallel(100, true)
+                .stream(p -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        p.put(i);
+                    }
+                })
+                .map(i -> {
+                    threads.add(Thread.currentThread().getName());
+                    return i * 2;
+                })
+                .collect(Collectors.toList())).get();
+        pool.shutdown();
+        Assert.assertEquals(10_000, values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(i * 2, (int) values.get(i));
+        }
+        LOG.info("Processed by {} threads", threads.size());
+    }
+
+    @Test
+    public void mapParallelTest() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Stream<Integer> source = IntStream.range(0, 200).boxed();
+        List<Integer> values = PowerStream.mapParallel(source, i -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            ProgressWorker.sleep((i * 7) % 20); // Expensive transformation of variable duration
+            running.decrementAndGet();
+            return i * 2;
+        }, 8, 32).collect(Collectors.toList());
+        Assert.assertEquals(200, values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(i * 2, (int) values.get(i));
+        }
+        // The transformations overlap, without exceeding the number of workers
+        Assert.assertThat(maxRunning.get(), Matchers.greaterThan(1));
+        Assert.assertThat(maxRunning.get(), Matchers.lessThanOrEqualTo(8));
+    }
+
+    @Test(timeout = 10_000)
+    public void mapParallelWindowTest() {
+        AtomicInteger started = new AtomicInteger();
+        int window = 4;
+        Iterator<Integer> it = PowerStream.mapParallel(IntStream.range(0, 50).boxed(), i -> {
+            started.incrementAndGet();
+            return i;
+        }, 2, window).iterator();
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(i, (int) it.next());
+            ProgressWorker.sleep(2); // Slow consumer: the results wait in the queue
+            // The results not yet taken count in the window.
+            Assert.assertThat(started.get(), Matchers.lessThanOrEqualTo(i + 1 + window));
+        }
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test(expected = PowerStream.PowerStreamException.class)
+    public void mapParallelFailureTest() {
+        PowerStream.mapParallel(IntStream.range(0, 100).boxed(), i -> 10 / (50 - i), 4, 8).count();
+    }
+
+    @Test
+    public void weigherTest() throws InterruptedException {
+        AtomicInteger pushed = new AtomicInteger();
+        Iterator<String> it = PowerStream.<String>builder()
+                .weigher(String::length, 1000)
+                .iterator(p -> {
+                    for (int i = 0; i < 100; i++) {
+                        p.put(StringUtils.repeat('x', 100));
+                        pushed.incrementAndGet();
+                    }
+                    p.put(StringUtils.repeat('x', 5000)); // Bigger than the budget
+                });
+        Thread.sleep(300);
+        Assert.assertEquals(10, pushed.get());
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        Assert.assertEquals(101, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weigherPreallocatedTest() {
+        PowerStream.<String>builder()
+                .queue(QueueStrategy.ARRAY)
+                .weigher(String::length, 1000)
+                .iterator(p -> p.put("x"));
+    }
+
+    static final Codec<Integer> INT_CODEC = new Codec<Integer>() {
+        @Override
+        public void encode(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer decode(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    @Test(timeout = 20_000)
+    public void spillTest() throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("spill").toFile();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Iterator<Integer> it = PowerStream.<Integer>builder()
+                .capacity(10)
+                .spill(INT_CODEC, 4096, directory)
+                .iterator(p -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        p.put(i);
+                    }
+                    finished.set(true);
+                });
+        while (!finished.get()) {
+            Thread.sleep(10); // The producer is never blocked
+        }
+        Assert.assertThat(directory.list().length, Matchers.greaterThan(1));
+        for (int i = 0; i < 100_000; i++) {
+            Assert.assertEquals(i, (int) it.next());
+        }
+        Assert.assertFalse(it.hasNext());
+        Assert.assertEquals(0, directory.list().length);
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test
+    public void spillCloseTest() throws IOException {
+        File directory = Files.createTempDirectory("spill").toFile();
+        try (Stream<Integer> stream = PowerStream.<Integer>builder()
+                .capacity(10)
+                .chunked(10, 1, TimeUnit.SECONDS)
+                .spill(INT_CODEC, 4096, directory)
+                .stream(p -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        p.put(i);
+                    }
+                })) {
+            Assert.assertEquals(Arrays.asList(0, 1, 2), stream.limit(3).collect(Collectors.toList()));
+        }
+        Assert.assertEquals(0, directory.list().length);
+        Assert.assertTrue(directory.delete());
+    }
+
+    @Test(timeout = 10_000)
+    public void publisherTest() throws InterruptedException {
+        AtomicInteger produced = new AtomicInteger();
+        Publisher<Integer> publisher = PowerStream.<Integer>builder().capacity(10).publisher(p -> {
+            for (int i = 0; i < 1000; i++) {
+                p.put(i);
+                produced.incrementAndGet();
+            }
+        });
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        publisher.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+                s.request(5);
+            }
+
+            @Override
+            public void onNext(Integer value) {
+                received.add(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                Assert.fail(t.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        Thread.sleep(200);
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), received); // The demand is respected
+        Assert.assertThat(produced.get(), Matchers.lessThan(1000)); // The producer is blocked
+        subscription.get().request(Long.MAX_VALUE);
+        completed.await();
+        Assert.assertEquals(1000, received.size());
+        Assert.assertEquals(999, (int) received.get(999));
+    }
+
+    @Test(timeout = 10_000)
+    public void publisherDemandTest() throws InterruptedException {
+        Publisher<Integer> publisher = PowerStream.publisher(p -> {
+            for (int i = 0; i < 100; i++) {
+                p.put(i);
+            }
+        });
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(1);
+        publisher.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(3);
+                s.request(Long.MAX_VALUE); // Overflows: the demand must be unbounded
+            }
+
+            @Override
+            public void onNext(Integer value) {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                Assert.fail(t.getMessage());
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        completed.await();
+        Assert.assertEquals(100, received.get());
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch terminated = new CountDownLatch(1);
+        publisher.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(0);
+            }
+
+            @Override
+            public void onNext(Integer value) {
+                Assert.fail("No element requested");
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failure.set(t);
+                terminated.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                terminated.countDown();
+            }
+        });
+        terminated.await();
+        Assert.assertThat(failure.get(), Matchers.instanceOf(IllegalArgumentException.class));
+    }
+
+    @Test(timeout = 10_000)
+    public void publisherCancelTest() throws InterruptedException {
+        CountDownLatch stopped = new CountDownLatch(1);
+        Publisher<Integer> publisher = PowerStream.<Integer>builder().capacity(10).publisher(p -> {
+            try {
+                for (int i = 0; ; i++) {
+                    p.put(i);
+                }
+            } finally {
+                stopped.countDown();
+            }
+        });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1000);
+        publisher.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+                new Thread(() -> s.request(Long.MAX_VALUE)).start();
+            }
+
+            @Override
+            public void onNext(Integer value) {
+                started.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failure.set(t);
+            }
+
+            @Override
+            public void onComplete() {
+                // Nothing to do
+            }
+        });
+        started.await();
+        // Cancelled by another thread while the elements are delivered
+        subscription.get().cancel();
+        stopped.await();
+        Assert.assertNull(failure.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void publisherFailureTest() throws InterruptedException {
+        Publisher<Integer> publisher = PowerStream.publisher(p -> {
+            p.put(1);
+            throw new IllegalStateException("Database down");
+        });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch terminated = new CountDownLatch(1);
+        publisher.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(10);
+            }
+
+            @Override
+            public void onNext(Integer value) {
+                Assert.assertEquals(1, (int) value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failure.set(t);
+                terminated.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                terminated.countDown();
+            }
+        });
+        terminated.await();
+        Assert.assertEquals("Database down", failure.get().getMessage());
+    }
+
+    @Test(timeout = 10_000)
+    public void fromPublisherTest() {
+        Publisher<Integer> publisher = PowerStream.publisher(p -> {
+            for (int i = 0; i < 10_000; i++) {
+                p.put(i);
+            }
+        });
+        try (Stream<Integer> stream = PowerStream.fromPublisher(publisher, 100)) {
+            Assert.assertEquals(10_000L * 9_999 / 2, stream.mapToLong(Integer::longValue).sum());
+        }
+        try (Stream<Integer> stream = PowerStream.fromPublisher(publisher, 10)) {
+            Assert.assertEquals(Arrays.asList(0, 1, 2), stream.limit(3).collect(Collectors.toList()));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void longPowerStreamTest() {
+        try (LongStream stream = LongPowerStream.stream(p -> {
+            for (long i = 0; i < 100_000; i++) {
+                p.put(i);
+            }
+        }, 1000, 64)) {
+            Assert.assertEquals(100_000L * 99_999 / 2, stream.sum());
+        }
+        // Partial chunk pushed when sleeping and at the end
+        LongPowerStream it = LongPowerStream.iterator(p -> {
+            p.put(1L);
+            p.sleep(10);
+            p.put(Long.MAX_VALUE);
+        });
+        Assert.assertEquals(1L, it.nextLong());
+        Assert.assertEquals(Long.MAX_VALUE, it.nextLong());
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test(timeout = 10_000)
+    public void intPowerStreamTest() {
+        try (IntStream stream = IntPowerStream.stream(p -> {
+            for (int i = 0; i < 1000; i++) {
+                p.put(i);
+            }
+        })) {
+            Assert.assertArrayEquals(IntStream.range(0, 1000).toArray(), stream.toArray());
+        }
+        try (IntStream stream = IntPowerStream.stream(p -> {
+            while (true) {
+                p.put(1);
+            }
+        }, 100, 10)) {
+            Assert.assertEquals(50, stream.limit(50).sum());
+        }
+    }
+
+    @Test(timeout = 20_000)
+    public void partitionedTest() {
+        Map<Integer, List<Integer>> received = new ConcurrentHashMap<>();
+        Stream<Integer> source = IntStream.range(0, 10_000).boxed();
+        PartitionedConsumer<Integer> consumer = PowerStream.partitioned(source, i -> i % 100, 4, 50, i -> {
+            received.computeIfAbsent(i % 100, k -> Collections.synchronizedList(new ArrayList<>())).add(i);
+        });
+        consumer.join();
+        Assert.assertEquals(100, received.size());
+        received.forEach((key, values) -> {
+            Assert.assertEquals(100, values.size());
+            for (int i = 1; i < values.size(); i++) {
+                Assert.assertTrue("Order kept for the key " + key, values.get(i - 1) < values.get(i));
+            }
+        });
+        Assert.assertEquals(4, consumer.getMetrics().size());
+        Assert.assertEquals(10_000L, consumer.getMetrics().stream().mapToLong(PartitionedConsumer.PartitionMetrics::getProcessed).sum());
+        consumer.getMetrics().forEach(m -> {
+            LOG.info("{}", m);
+            Assert.assertEquals(0, m.getQueueSize());
+        });
+    }
+
+    @Test(timeout = 10_000)
+    public void partitionedFailureTest() {
+        Iterator<Integer> source = PowerStream.iterator(p -> {
+            while (true) {
+                p.put(1);
+            }
+        }, 10);
+        PartitionedConsumer<Integer> consumer = PowerStream.partitioned(source, i -> i, 2, 10, i -> {
+            throw new IllegalStateException("Database down");
+        });
+        try {
+            consumer.join();
+            Assert.fail("The failure must be thrown by join()");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("Database down", ex.getCause().getMessage());
+        }
+        Assert.assertTrue(consumer.isClosed());
+        ((PowerStream<Integer>) source).close();
+    }
+
+    @Test(timeout = 10_000)
+    public void batchesTest() {
+        // A burst gives full batches
+        try (Stream<List<Integer>> batches = PowerStream.batches(IntStream.range(0, 1000).boxed(), 100, 1, TimeUnit.SECONDS)) {
+            List<List<Integer>> list = batches.collect(Collectors.toList());
+            Assert.assertEquals(10, list.size());
+            list.forEach(b -> Assert.assertEquals(100, b.size()));
+            Assert.assertEquals(999, (int) list.get(9).get(99));
+        }
+
+        // A slow trickle does not hold the elements
+        Stream<Integer> trickle = PowerStream.stream(p -> {
+            for (int i = 0; i < 5; i++) {
+                p.put(i);
+                p.sleep(100);
+            }
+        });
+        try (Stream<List<Integer>> batches = PowerStream.batches(trickle, 100, 20, TimeUnit.MILLISECONDS)) {
+            // Emitted after the linger, before the next element arrives (the elements are not held).
+            List<Integer> first = batches.findFirst().orElse(null);
+            Assert.assertEquals(Collections.singletonList(0), first);
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void batchesFailureTest() {
+        Stream<Integer> source = PowerStream.stream(p -> {
+            p.put(1);
+            p.put(2);
+            throw new IllegalStateException("Database down");
+        });
+        Iterator<List<Integer>> it = PowerStream.batches(source, 10, 1, TimeUnit.SECONDS).iterator();
+        Assert.assertEquals(Arrays.asList(1, 2), it.next());
+        try {
+            it.hasNext();
+            Assert.fail("The failure must be sent to the consumer");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("Database down", ex.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void mergeSortedTest() {
+        List<Consumer<PowerStream.Pusher<Integer>>> producers = new ArrayList<>();
+        for (int shard = 0; shard < 5; shard++) {
+            int first = shard;
+            producers.add(p -> {
+                for (int i = first; i < 10_000; i += 5) {
+                    p.put(i);
+                }
+            });
+        }
+        producers.add(p -> {
+            // An empty shard
+        });
+        try (Stream<Integer> stream = PowerStream.mergeSorted(Comparator.naturalOrder(), producers, 10)) {
+            Assert.assertEquals(IntStream.range(0, 10_000).boxed().collect(Collectors.toList()), stream.collect(Collectors.toList()));
+        }
+        try (Stream<String> stream = PowerStream.mergeSorted(Comparator.reverseOrder(), Arrays.asList(
+                p -> p.putList(Arrays.asList("z", "m", "a")),
+                p -> p.putList(Arrays.asList("y", "m", "b"))))) {
+            Assert.assertEquals("zymmba", stream.collect(Collectors.joining()));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void pagedOffsetTest() {
+        AtomicInteger fetched = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        PageFetcher<Long, Integer> fetcher = PageFetcher.offset(10, (offset, limit) -> {
+            fetched.incrementAndGet();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            ProgressWorker.sleep(100);
+            running.decrementAndGet();
+            return IntStream.range((int) offset, (int) Math.min(offset + limit, 95)).boxed().collect(Collectors.toList());
+        });
+        try (Stream<Integer> stream = PowerStream.paged(fetcher, 5)) {
+            Assert.assertEquals(IntStream.range(0, 95).boxed().collect(Collectors.toList()), stream.collect(Collectors.toList()));
+        }
+        // The pages are fetched at the same time, within the lookahead
+        Assert.assertThat(maxRunning.get(), Matchers.greaterThan(1));
+        Assert.assertThat(maxRunning.get(), Matchers.lessThanOrEqualTo(5));
+        Assert.assertThat(fetched.get(), Matchers.lessThanOrEqualTo(14));
+    }
+
+    @Test(timeout = 10_000)
+    public void pagedCursorTest() throws InterruptedException {
+        PageFetcher<String, String> fetcher = PageFetcher.cursor(null, token -> {
+            if (token == null) {
+                return Page.of(Arrays.asList("a", "b"), "t1");
+            } else if (token.equals("t1")) {
+                return Page.of(Collections.singletonList("c"), "t2");
+            }
+            return Page.last(Arrays.asList("d", "e"));
+        });
+        try (Stream<String> stream = PowerStream.paged(fetcher, 3)) {
+            Assert.assertEquals("abcde", stream.collect(Collectors.joining()));
+        }
+
+        // A page bigger than the queue: the next page is fetched while it is consumed.
+        CountDownLatch nextFetched = new CountDownLatch(1);
+        PageFetcher<String, Integer> big = PageFetcher.cursor(null, token -> {
+            if (token == null) {
+                return Page.of(IntStream.range(0, 2000).boxed().collect(Collectors.toList()), "t1");
+            }
+            nextFetched.countDown();
+            return Page.last(Collections.singletonList(2000));
+        });
+        try (Stream<Integer> stream = PowerStream.paged(big, 1)) {
+            Iterator<Integer> it = stream.iterator();
+            Assert.assertEquals(0, (int) it.next());
+            Assert.assertTrue(nextFetched.await(5, TimeUnit.SECONDS));
+            int count = 1;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            Assert.assertEquals(2001, count);
+        }
+        PageFetcher<String, String> failing = PageFetcher.cursor("t0", token -> {
+            throw new IllegalStateException("API down");
+        });
+        try (Stream<String> stream = PowerStream.paged(failing, 3)) {
+            stream.count();
+            Assert.fail("The failure must be sent to the consumer");
+        } catch (PowerStream.PowerStreamException ex) {
+            Assert.assertEquals("API down", ex.getCause().getMessage());
+        }
+    }
+}
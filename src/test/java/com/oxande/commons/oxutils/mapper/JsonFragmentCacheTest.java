@@ -0,0 +1,40 @@
+package com.oxande.commons.oxutils.mapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JsonFragmentCacheTest {
+
+    @Test
+    public void cacheTest() throws InterruptedException {
+        AtomicInteger serialized = new AtomicInteger();
+        JsonFragmentCache cache = new JsonFragmentCache(2, 200, TimeUnit.MILLISECONDS);
+        RawJson json = cache.get("colors", 1, () -> {
+            serialized.incrementAndGet();
+            return Arrays.asList("red", "green");
+        });
+        Assert.assertEquals("[\"red\",\"green\"]", json.toString());
+        Assert.assertSame(json, cache.get("colors", 1, () -> {
+            throw new AssertionError("Already cached");
+        }));
+        Assert.assertEquals(1, serialized.get());
+
+        // A new version
+        Assert.assertEquals("[\"blue\"]", cache.get("colors", 2, () -> Arrays.asList("blue")).toString());
+        // The least recently used is evicted
+        cache.get("sizes", null, () -> Arrays.asList(1, 2));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("[\"red\"]", cache.get("colors", 1, () -> Arrays.asList("red")).toString());
+
+        // Expired
+        Thread.sleep(250);
+        Assert.assertEquals("[3]", cache.get("sizes", null, () -> Arrays.asList(3)).toString());
+
+        cache.invalidate("colors");
+        Assert.assertEquals(1, cache.size());
+    }
+}